@@ -0,0 +1,158 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *   Bytes in large blocks that are handed out as slices, so that many streams of
+ *   bytes can grow at the same time without an array of their own. A stream starts
+ *   in a small slice and when it fills up the stream continues in a larger one, whose
+ *   address is written in the last four bytes of the full slice. Addresses are
+ *   counted over all blocks.
+ *
+ *   NOTE: the first of the four bytes kept for the address is a non-zero byte that
+ *   tells the level of the slice, and bytes that are not written yet are 0, which is
+ *   how a writer finds the end of its slice. Bytes are written through writeByte,
+ *   which moves on to a new slice when needed. A byte is never changed once it is
+ *   written, so a stream can be read up to an end that was taken while holding the
+ *   writer's lock, without the lock, while the writer goes on.
+ */
+public class ByteBlockPool {
+	public static final int BLOCK_SHIFT = 15;
+	public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	// the size of the slices of every level, and the level that follows it
+	private static final int[] LEVEL_SIZE = {9, 14, 20, 30, 40, 40, 80, 80, 120, 200};
+	private static final int[] NEXT_LEVEL = {1, 2, 3, 4, 5, 6, 7, 8, 9, 9};
+	private static final int LEVEL_MARK = 16;
+
+	private byte[][] blocks = new byte[16][];
+	private int numBlocks = 0;
+	private byte[] current = null;
+	private int upto = BLOCK_SIZE; // in the current block
+	private int offset = -BLOCK_SIZE; // address of the current block
+
+	// bytes in the allocated blocks
+	public long sizeInBytes() {
+		return (long) numBlocks * BLOCK_SIZE + 8L * blocks.length;
+	}
+
+	// the address of a new slice of the first level
+	public int newSlice() {
+		int size = LEVEL_SIZE[0];
+		if (upto > BLOCK_SIZE - size) nextBlock();
+
+		int start = upto;
+		upto += size;
+		current[upto - 4] = LEVEL_MARK;
+		return offset + start;
+	}
+
+	// writes the byte at the address and returns the address of the next byte
+	public int writeByte(int address, byte b) {
+		byte[] block = blocks[address >>> BLOCK_SHIFT];
+		int i = address & BLOCK_MASK;
+		if (block[i] != 0) {
+			address = nextSlice(block, i);
+			block = blocks[address >>> BLOCK_SHIFT];
+			i = address & BLOCK_MASK;
+		}
+
+		block[i] = b;
+		return address + 1;
+	}
+
+	// variable byte encoded, like VByte
+	public int writeVInt(int address, int n) {
+		while ((n & ~0x7F) != 0) {
+			address = writeByte(address, (byte) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+
+		return writeByte(address, (byte) n);
+	}
+
+	// continues the slice whose data ends at i of the block in a slice of the next
+	// level, returns the address where writing goes on
+	private int nextSlice(byte[] block, int i) {
+		int level = NEXT_LEVEL[block[i] & (LEVEL_MARK - 1)];
+		int size = LEVEL_SIZE[level];
+		if (upto > BLOCK_SIZE - size) nextBlock();
+
+		int start = upto;
+		int address = offset + start;
+		upto += size;
+
+		block[i] = (byte) (address >>> 24);
+		block[i + 1] = (byte) (address >>> 16);
+		block[i + 2] = (byte) (address >>> 8);
+		block[i + 3] = (byte) address;
+
+		current[upto - 4] = (byte) (LEVEL_MARK | level);
+		return address;
+	}
+
+	private void nextBlock() {
+		if (numBlocks == blocks.length) blocks = Arrays.copyOf(blocks, 2 * numBlocks);
+		if ((long) numBlocks << BLOCK_SHIFT > Integer.MAX_VALUE - BLOCK_SIZE) throw new IllegalStateException("Byte block pool is full");
+
+		current = new byte[BLOCK_SIZE];
+		blocks[numBlocks++] = current;
+		upto = 0;
+		offset += BLOCK_SIZE;
+	}
+
+	/**
+	 *   Reads a stream of bytes from its first slice up to the end address the writer
+	 *   got back from its last write. The blocks are taken when the reader is started,
+	 *   the pool may have grown a new array of blocks since.
+	 */
+	public class SliceReader {
+		private byte[][] blocks;
+		private int level;
+		private int upto; // address of the next byte
+		private int limit; // address of the end of the data in the current slice
+		private int end;
+
+		public void init(int start, int end) {
+			this.end = end;
+			blocks = ByteBlockPool.this.blocks;
+			level = 0;
+			upto = start;
+			limit = Math.min(end, start + LEVEL_SIZE[0] - 4);
+		}
+
+		public boolean eof() {
+			return upto == end;
+		}
+
+		public byte readByte() {
+			if (upto == limit) nextSlice();
+			byte b = blocks[upto >>> BLOCK_SHIFT][upto & BLOCK_MASK];
+			upto++;
+			return b;
+		}
+
+		public int readVInt() {
+			int b = readByte();
+			int n = b & 0x7F;
+			for (int shift = 7; b < 0; shift += 7) {
+				b = readByte();
+				n |= (b & 0x7F) << shift;
+			}
+
+			return n;
+		}
+
+		// the address of the next slice is in the four bytes at the limit
+		private void nextSlice() {
+			byte[] block = blocks[limit >>> BLOCK_SHIFT];
+			int i = limit & BLOCK_MASK;
+			int next = ((block[i] & 0xFF) << 24) | ((block[i + 1] & 0xFF) << 16) | ((block[i + 2] & 0xFF) << 8) | (block[i + 3] & 0xFF);
+
+			level = NEXT_LEVEL[level];
+			upto = next;
+			limit = Math.min(end, next + LEVEL_SIZE[level] - 4);
+		}
+	}
+}
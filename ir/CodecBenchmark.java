@@ -0,0 +1,65 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *   Compares the postings codecs on an existing index. The segments are
+ *   written again with every codec, then all postings lists are decoded
+ *   ROUNDS times and the index size and the decoded integers per second
+ *   are printed.
+ *
+ *   Usage: java ir.CodecBenchmark
+ */
+public class CodecBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		Indexer indexer = new Indexer();
+		if (!indexer.indexExists()) {
+			System.err.println("Build an index first");
+			System.exit(1);
+		}
+
+		indexer.readExistingIndex();
+		for (IntCodec codec : new IntCodec[] { IntCodec.VBYTE, IntCodec.PFOR }) {
+			long size = 0;
+			long ints = 0;
+			long nanos = 0;
+			for (Segment segment : indexer.segments) {
+				String fileName = segment.dir + "benchmark-" + codec.name;
+				String positionsFileName = fileName + "-positions";
+				String dictionaryFileName = fileName + "-dictionary";
+				IndexWriter iw = new IndexWriter(fileName, positionsFileName, dictionaryFileName, codec);
+				List<SegmentReader> readers = new ArrayList<SegmentReader>();
+				readers.add(new SegmentReader(segment, new BitSet(), null));
+				new PartitionMerger().mergeReaders(readers, iw);
+				iw.close();
+
+				MappedFile f = new MappedFile(fileName);
+				MappedFile positions = new MappedFile(positionsFileName);
+				size += f.length() + positions.length();
+				TermDictionary dictionary = new TermDictionary(dictionaryFileName);
+				TermPostings postings = new TermPostings();
+				for (int round = 0; round < ROUNDS; round++) {
+					long start = System.nanoTime();
+					TermDictionary.TermIterator terms = dictionary.iterator();
+					while (terms.next()) {
+						postings.read(f, terms.postingsPosition(), positions, codec);
+						ints += 2 * postings.numDocs + postings.offsetStarts[postings.numDocs];
+					}
+
+					nanos += System.nanoTime() - start;
+				}
+
+				new File(fileName).delete();
+				new File(positionsFileName).delete();
+				new File(dictionaryFileName).delete();
+			}
+
+			System.out.printf("%-6s %8d KB %8.1f M ints/s%n", codec.name, size >> 10, ints * 1000.0 / nanos);
+		}
+
+		System.exit(0);
+	}
+}
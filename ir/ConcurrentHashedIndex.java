@@ -0,0 +1,213 @@
+package ir;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ *   An index in memory that several threads can insert into and search at the same
+ *   time. Every inserting thread appends to a PostingsBuffer of its own, so inserts
+ *   never wait for each other, and a document is only inserted by one thread, so the
+ *   buffers hold disjoint documents in docID order like shards. A search sees the
+ *   documents that were published before it started and none of the others, so a
+ *   document that is half inserted is never found.
+ *
+ *   NOTE: a document is published by the thread that inserted it, once all of its
+ *   tokens are in, so the documents of a buffer that a search sees are the ones up to
+ *   the last document the buffer had published when the search started.
+ */
+public class ConcurrentHashedIndex implements Index {
+
+	private final List<ThreadBuffer> buffers = new CopyOnWriteArrayList<ThreadBuffer>();
+	private final ThreadLocal<ThreadBuffer> threadBuffer = new ThreadLocal<ThreadBuffer>() {
+		protected ThreadBuffer initialValue() {
+			ThreadBuffer buffer = new ThreadBuffer();
+			buffers.add(buffer);
+			return buffer;
+		}
+	};
+	private final Object publishLock = new Object();
+	private final BitSet deletedDocs = new BitSet();
+
+	// the postings inserted by one thread and the last document it published
+	private static class ThreadBuffer {
+		final PostingsBuffer postings = new PostingsBuffer();
+		int published = -1;
+	}
+
+	// NOTE: the buffer is locked by its own thread for every insert, the lock is only
+	// contended while a search takes the ends of the streams of a term
+	public void insert( String token, int docID, int offset ) {
+		ThreadBuffer buffer = threadBuffer.get();
+		synchronized (buffer) {
+			buffer.postings.add(token, docID, offset);
+		}
+	}
+
+	// makes the document visible to searches started from now on, it has to be called
+	// by the thread that inserted the document when all of its tokens have been inserted
+	public void publish( int docID ) {
+		ThreadBuffer buffer = threadBuffer.get();
+		synchronized (publishLock) {
+			buffer.published = docID;
+		}
+	}
+
+	// the documents that are visible at this point
+	public Index snapshot() {
+		synchronized (publishLock) {
+			List<ThreadBuffer> visible = new ArrayList<ThreadBuffer>(buffers);
+			int[] lastDocs = new int[visible.size()];
+			for (int i = 0; i < lastDocs.length; i++) lastDocs[i] = visible.get(i).published;
+			return new Snapshot(visible, lastDocs);
+		}
+	}
+
+	// the terms of all buffers in sorted order, including the terms of unpublished documents
+	public Iterator<String> getDictionary() {
+		SortedSet<String> terms = new TreeSet<String>();
+		for (ThreadBuffer buffer : buffers) {
+			synchronized (buffer) {
+				Iterator<String> it = buffer.postings.terms();
+				while (it.hasNext()) terms.add(it.next());
+			}
+		}
+
+		return Collections.unmodifiableSet(terms).iterator();
+	}
+
+	public PostingsList getPostings( String token ) {
+		return snapshot().getPostings(token);
+	}
+
+	public PostingsCursor getCursor( String token ) {
+		return snapshot().getCursor(token);
+	}
+
+	public int docFrequency( String token ) {
+		return snapshot().docFrequency(token);
+	}
+
+	public double getPagerank(int docID) {
+		double score = documents.getPagerank(docID);
+		if (!Double.isNaN(score)) return score;
+		else {
+			System.err.println("No pagerank score for that document");
+			return 0.0;
+		}
+	}
+
+	// all terms of the query are read from the same snapshot
+	public PostingsList search( Query query, int queryType, int rankingType, int structureType ) {
+		return snapshot().search(query, queryType, rankingType, structureType);
+	}
+
+	public PostingsList search( Query query, int queryType, int rankingType, int structureType, int k ) {
+		return snapshot().search(query, queryType, rankingType, structureType, k);
+	}
+
+	// the postings of deleted documents are kept, they are skipped when searching
+	public void delete(int docID) {
+		synchronized (deletedDocs) {
+			deletedDocs.set(docID);
+		}
+	}
+
+	public boolean isDeleted(int docID) {
+		synchronized (deletedDocs) {
+			return deletedDocs.get(docID);
+		}
+	}
+
+	public void cleanup() {
+	}
+
+	/**
+	 *   A read only view of the published documents of the index. The cursors of a
+	 *   term read the streams of the buffers up to where they ended when the cursors
+	 *   were made and stop after the last visible document, so the view is not changed
+	 *   by later inserts. A buffer is only locked while a cursor is made.
+	 */
+	private class Snapshot implements Index {
+		private final List<ThreadBuffer> buffers;
+		private final int[] lastDocs; // the last visible document of every buffer
+		private final SearchEngine searchEngine = new SearchEngine(this);
+
+		Snapshot(List<ThreadBuffer> buffers, int[] lastDocs) {
+			this.buffers = buffers;
+			this.lastDocs = lastDocs;
+		}
+
+		public void insert( String token, int docID, int offset ) {
+			throw new UnsupportedOperationException("A snapshot can not be changed");
+		}
+
+		public Iterator<String> getDictionary() {
+			return ConcurrentHashedIndex.this.getDictionary();
+		}
+
+		// a cursor over the visible documents of every buffer that has any
+		private List<PostingsCursor> cursors( String token ) {
+			List<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+			for (int i = 0; i < lastDocs.length; i++) {
+				ThreadBuffer buffer = buffers.get(i);
+				PostingsCursor cursor;
+				synchronized (buffer) {
+					cursor = buffer.postings.getCursor(token, lastDocs[i]);
+				}
+
+				if (cursor != null && cursor.docFrequency() > 0) cursors.add(cursor);
+			}
+
+			return cursors;
+		}
+
+		// the postings of the buffers decoded in docID order
+		public PostingsList getPostings( String token ) {
+			PostingsCursor cursor = getCursor(token);
+			if (cursor == null) return null;
+
+			PostingsList result = new PostingsList();
+			for (int docID = cursor.nextDoc(); docID != PostingsCursor.NO_MORE_DOCS; docID = cursor.nextDoc()) {
+				int freq = cursor.freq();
+				for (int j = 0; j < freq; j++) result.add(docID, cursor.nextPosition());
+			}
+
+			return result;
+		}
+
+		public PostingsCursor getCursor( String token ) {
+			List<PostingsCursor> cursors = cursors(token);
+			if (cursors.isEmpty()) return null;
+			return cursors.size() == 1 ? cursors.get(0) : new UnionCursor(cursors);
+		}
+
+		public int docFrequency( String token ) {
+			int df = 0;
+			for (PostingsCursor cursor : cursors(token)) df += cursor.docFrequency();
+			return df;
+		}
+
+		public double getPagerank(int docID) {
+			return ConcurrentHashedIndex.this.getPagerank(docID);
+		}
+
+		public PostingsList search( Query query, int queryType, int rankingType, int structureType ) {
+			return searchEngine.search(query, queryType, rankingType, structureType);
+		}
+
+		public PostingsList search( Query query, int queryType, int rankingType, int structureType, int k ) {
+			return searchEngine.search(query, queryType, rankingType, structureType, k);
+		}
+
+		public void delete(int docID) {
+			throw new UnsupportedOperationException("A snapshot can not be changed");
+		}
+
+		public boolean isDeleted(int docID) {
+			return ConcurrentHashedIndex.this.isDeleted(docID);
+		}
+
+		public void cleanup() {
+		}
+	}
+}
@@ -16,97 +16,178 @@ public class DiskIndex implements Index {
 		throw new UnsupportedOperationException("The index file is not created here");
 	}
 
+	// the terms of all segments in sorted order, merged from their dictionaries as they are iterated.
+	// The dictionaries stay mapped even if a merge replaces the segments meanwhile
 	public Iterator<String> getDictionary() {
-		return indexer.termIndexPositions.keySet().iterator();
+		final PriorityQueue<TermDictionary.TermIterator> heap = new PriorityQueue<TermDictionary.TermIterator>(11, 
+				new Comparator<TermDictionary.TermIterator>() {
+			@Override
+			public int compare(TermDictionary.TermIterator t1, TermDictionary.TermIterator t2) {
+				return PartitionReader.compareTerms(t1.term(), t1.termLength(), t2.term(), t2.termLength());
+			}
+		});
+
+		indexer.segmentsLock.readLock().lock();
+		try {
+			for (Segment segment : indexer.segments) {
+				TermDictionary.TermIterator ti = segment.getDictionary().iterator();
+				if (ti.next()) heap.add(ti);
+			}
+
+		} catch (IOException e) {
+			System.err.println("Error reading term dictionaries");
+		} finally {
+			indexer.segmentsLock.readLock().unlock();
+		}
+
+		return new Iterator<String>() {
+			public boolean hasNext() {
+				return !heap.isEmpty();
+			}
+
+			public String next() {
+				if (heap.isEmpty()) throw new NoSuchElementException();
+
+				// the same term can be in several segments
+				TermDictionary.TermIterator first = heap.poll();
+				String term = first.termString();
+				while (!heap.isEmpty() && heap.comparator().compare(first, heap.peek()) == 0) {
+					TermDictionary.TermIterator ti = heap.poll();
+					if (ti.next()) heap.add(ti);
+				}
+
+				if (first.next()) heap.add(first);
+				return term;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 	
 	public double getPagerank(int docID) {
-		String fullname = docIDs.get("" + docID);
-		int idx = fullname.lastIndexOf("/");
-		String shortname = fullname.substring(idx+1, fullname.length());
-		idx = shortname.lastIndexOf(".");
-		shortname = shortname.substring(0, idx);
-
-		if (pagerankScores.containsKey(shortname)) return pagerankScores.get(shortname);
+		double score = documents.getPagerank(docID);
+		if (!Double.isNaN(score)) return score;
 		else {
-			System.err.println("Missing pagerank for: " + fullname + " (" + shortname + ")");
+			System.err.println("Missing pagerank for: " + documents.getPath(docID));
 			return 0.0;
 		}
 	}
 
+	// the segments are in docID order, so their postings can simply be appended
 	public PostingsList getPostings( String token ) {
-		if (indexer.termIndexPositions.containsKey(token)) {
-			long filePos = indexer.termIndexPositions.get(token);
-
-			try {
-				RandomAccessFile indexFile = new RandomAccessFile("/tmp/pertoft/full-index", "r");
-				indexFile.seek(filePos);
-				String line = indexFile.readLine();
-				indexFile.close();
-				return parsePostingsList(line);
-
-			} catch (Exception e) {
-				System.err.println("Error reading index file");
-				return null;
+		PostingsList result = null;
+		indexer.segmentsLock.readLock().lock();
+		try {
+			for (Segment segment : indexer.segments) {
+				String key = PostingsCache.key(segment, token);
+				TermPostings tp = indexer.postingsCache.get(key);
+				if (tp == null) {
+					tp = segment.readPostings(token);
+					if (tp == null) continue;
+
+					tp.trim();
+					indexer.postingsCache.put(key, tp);
+				}
+
+				if (result == null) result = Segment.toPostingsList(tp);
+				else result.addAll(Segment.toPostingsList(tp));
 			}
+
+		} finally {
+			indexer.segmentsLock.readLock().unlock();
 		}
-		return null;
+
+		return result;
 	}
 
-	private PostingsList parsePostingsList(String plString) {
-		PostingsList pl = new PostingsList();
-		String[] pEntries = plString.split(",");
-		for (String pEntry : pEntries) {
-			String[] info = pEntry.split(" ");
-			int docID = Integer.parseInt(info[0]);
-			for (int i = 1; i < info.length; i++) pl.add(docID, Integer.parseInt(info[i]));
+	// NOTE: the cursors read the segments, so they must only be used while the read lock is held
+	public PostingsCursor getCursor( String token ) {
+		List<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+		indexer.segmentsLock.readLock().lock();
+		try {
+			for (Segment segment : indexer.segments) {
+				PostingsCursor cursor = getCursor(segment, token);
+				if (cursor != null) cursors.add(cursor);
+			}
+
+		} finally {
+			indexer.segmentsLock.readLock().unlock();
 		}
 
-		return pl;
+		if (cursors.isEmpty()) return null;
+		return cursors.size() == 1 ? cursors.get(0) : new MultiCursor(cursors);
 	}
 
-	public PostingsList search( Query query, int queryType, int rankingType, int structureType ) {
-		return searchEngine.search(query, queryType, rankingType, structureType);	
+	// cached postings are used when there are some, and postings that are missed again are
+	// read whole into the cache, otherwise the segment is read lazily
+	private PostingsCursor getCursor(Segment segment, String token) {
+		String key = PostingsCache.key(segment, token);
+		TermPostings tp = indexer.postingsCache.get(key);
+		if (tp == null && indexer.postingsCache.admit(key)) {
+			tp = segment.readPostings(token);
+			if (tp == null) return null;
+
+			tp.trim();
+			indexer.postingsCache.put(key, tp);
+		}
+
+		return tp != null ? new TermPostingsCursor(tp) : segment.getCursor(token);
 	}
 
-	// saves the term index file
-	public void cleanup() {
-		if (indexer.indexExists()) return;
+	// the number of documents of the segments with the term, deleted ones included 
+	// like in the cursors
+	public int docFrequency( String token ) {
+		int df = 0;
+		indexer.segmentsLock.readLock().lock();
+		try {
+			for (Segment segment : indexer.segments) {
+				TermDictionary.TermIterator ti = segment.getDictionary().find(token);
+				if (ti != null) df += ti.docFrequency();
+			}
+
+		} catch (IOException e) {
+			System.err.println("Error reading term dictionaries");
+		} finally {
+			indexer.segmentsLock.readLock().unlock();
+		}
+
+		return df;
+	}
+
+	public PostingsList search( Query query, int queryType, int rankingType, int structureType ) {
+		return search(query, queryType, rankingType, structureType, Integer.MAX_VALUE);
+	}
 
-		System.out.println("Saving term index file");
+	// the whole search sees the same segments even if a merge finishes meanwhile
+	public PostingsList search( Query query, int queryType, int rankingType, int structureType, int k ) {
+		indexer.segmentsLock.readLock().lock();
 		try {
-			File termIndexFile = new File(indexer.getTermIndexFilename());
-			termIndexFile.createNewFile();
-			BufferedWriter bw = new BufferedWriter(new FileWriter(termIndexFile));
+			return searchEngine.search(query, queryType, rankingType, structureType, k);	
+		} finally {
+			indexer.segmentsLock.readLock().unlock();
+		}
+	}
 
-			for (Map.Entry<String, Long> ti : indexer.termIndexPositions.entrySet()) 
-				bw.write(ti.getKey() +  " " + ti.getValue() + "\n");
+	public void delete(int docID) {
+		indexer.markDeleted(docID);
+	}
 
-			bw.flush();
-			bw.close();
-			
-			File docPathsFile = new File(indexer.getDocPathsFilename());
-			docPathsFile.createNewFile();
-			bw = new BufferedWriter(new FileWriter(docPathsFile));
-			for (Map.Entry<String, String> ti : docIDs.entrySet()) 
-				bw.write(ti.getKey() + " " + ti.getValue() + "\n");
-			
-			bw.flush();
-			bw.close();
+	// NOTE: called for every posting during a search, which already holds the read lock
+	public boolean isDeleted(int docID) {
+		return indexer.deletedDocs.get(docID);
+	}
 
-			File docLengthsFile = new File(indexer.getDocLengthsFilename());
-			docLengthsFile.createNewFile();
-			bw = new BufferedWriter(new FileWriter(docLengthsFile));
-			for (Map.Entry<String, Integer> e : docLengths.entrySet())
-				bw.write(e.getKey() + " " + e.getValue() + "\n");
+	// saves the pagerank scores, the segments are saved when they are created
+	public void cleanup() {
+		if (new File(indexer.getPagerankFilename()).exists() || pagerankScores.isEmpty()) return;
 
-			bw.flush();
-			bw.close();
-			
-			System.out.println("Writing pagerank file");
+		System.out.println("Writing pagerank file");
+		try {
 			File pagerankFile = new File(indexer.getPagerankFilename());
 			pagerankFile.createNewFile();
-			bw = new BufferedWriter(new FileWriter(pagerankFile));
+			BufferedWriter bw = new BufferedWriter(new FileWriter(pagerankFile));
 			for (Map.Entry<String, Double> e : pagerankScores.entrySet()) 
 				bw.write(e.getKey() + " " + e.getValue() + "\n");
 
@@ -114,8 +195,7 @@ public class DiskIndex implements Index {
 			bw.close();
 
 		} catch (Exception e) {
-			System.err.println("Error during saving of index");
-			// TODO: remove all index files
+			System.err.println("Error during saving of pagerank scores");
 		}
 	}
 }
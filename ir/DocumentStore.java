@@ -0,0 +1,182 @@
+package ir;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ *   The paths, lengths, modification times and pagerank scores of the indexed
+ *   documents in arrays indexed by docID. The paths are kept as UTF-8 bytes in
+ *   one blob, so a document costs a few array slots instead of map entries with
+ *   string keys. The methods are synchronized since documents are added by the
+ *   indexing threads while searches and segment merges read them.
+ */
+public class DocumentStore {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final BitSet live = new BitSet();
+	private int numDocs = 0;
+	private int[] lengths = new int[1024];
+	private long[] modified = new long[1024];
+	private double[] pageranks = new double[1024];
+	private int[] pathStarts = new int[1024];
+	private int[] pathLengths = new int[1024];
+	private byte[] pathBlob = new byte[1 << 16];
+	private int blobLength = 0;
+	private Map<String, Double> pagerankScores = null;
+
+	public synchronized void add(int docID, String path, long lastModified) {
+		ensure(docID);
+		byte[] bytes = path.getBytes(UTF8);
+		if (pathBlob.length - blobLength < bytes.length)
+			pathBlob = Arrays.copyOf(pathBlob, Math.max(blobLength + bytes.length, 2 * pathBlob.length));
+
+		System.arraycopy(bytes, 0, pathBlob, blobLength, bytes.length);
+		pathStarts[docID] = blobLength;
+		pathLengths[docID] = bytes.length;
+		blobLength += bytes.length;
+		modified[docID] = lastModified;
+		lengths[docID] = 0;
+		pageranks[docID] = pagerankOf(path);
+
+		if (!live.get(docID)) numDocs++;
+		live.set(docID);
+	}
+
+	// NOTE: the path stays in the blob until the documents are read again from the segments
+	public synchronized void remove(int docID) {
+		if (!live.get(docID)) return;
+
+		live.clear(docID);
+		numDocs--;
+	}
+
+	public synchronized boolean contains(int docID) {
+		return docID >= 0 && live.get(docID);
+	}
+
+	// the number of documents in the store
+	public synchronized int size() {
+		return numDocs;
+	}
+
+	// the first document from docID onwards, or -1 if there is none
+	public synchronized int nextDoc(int docID) {
+		return live.nextSetBit(docID);
+	}
+
+	public synchronized String getPath(int docID) {
+		if (!contains(docID)) return null;
+		return new String(pathBlob, pathStarts[docID], pathLengths[docID], UTF8);
+	}
+
+	public synchronized void setLength(int docID, int length) {
+		if (contains(docID)) lengths[docID] = length;
+	}
+
+	// the number of tokens of the document, 0 if it is not in the store
+	public synchronized int getLength(int docID) {
+		return contains(docID) ? lengths[docID] : 0;
+	}
+
+	// the modification time of the file when it was indexed, 0 if it is not known
+	public synchronized long getModified(int docID) {
+		return contains(docID) ? modified[docID] : 0;
+	}
+
+	// NaN if there is no pagerank score for the document
+	public synchronized double getPagerank(int docID) {
+		return contains(docID) ? pageranks[docID] : Double.NaN;
+	}
+
+	// looks up the pagerank score of every document once, the scores are keyed by
+	// the file name of the document without its extension
+	public synchronized void setPageranks(Map<String, Double> scores) {
+		pagerankScores = scores;
+		for (int docID = live.nextSetBit(0); docID >= 0; docID = live.nextSetBit(docID + 1))
+			pageranks[docID] = pagerankOf(getPath(docID));
+	}
+
+	private double pagerankOf(String path) {
+		if (pagerankScores == null) return Double.NaN;
+
+		String shortname = path.substring(path.lastIndexOf("/") + 1);
+		int idx = shortname.lastIndexOf(".");
+		if (idx >= 0) shortname = shortname.substring(0, idx);
+
+		Double score = pagerankScores.get(shortname);
+		return score == null ? Double.NaN : score;
+	}
+
+	private void ensure(int docID) {
+		if (docID < lengths.length) return;
+
+		int size = Math.max(docID + 1, 2 * lengths.length);
+		lengths = Arrays.copyOf(lengths, size);
+		modified = Arrays.copyOf(modified, size);
+		pageranks = Arrays.copyOf(pageranks, size);
+		pathStarts = Arrays.copyOf(pathStarts, size);
+		pathLengths = Arrays.copyOf(pathLengths, size);
+	}
+
+	// NOTE: file structure is a column for every field over the docIDs from firstDocID
+	// up to endDocID, followed by the paths. Only every docIDStride:th document from
+	// firstDocID is written, the others belong to other shards and are left out as if
+	// they were not in the store
+	// <length> ... as ints
+	// <modification time> ... as longs
+	// <path length> ... as ints, 0 for documents that are not in the store
+	// <path bytes> ... in UTF-8
+	public synchronized void write(String fileName, int firstDocID, int endDocID, int docIDStride) throws IOException {
+		BitSet docs = new BitSet();
+		for (int docID = firstDocID; docID < endDocID; docID += docIDStride) 
+			if (contains(docID)) docs.set(docID - firstDocID);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		for (int i = 0; i < endDocID - firstDocID; i++) out.writeInt(docs.get(i) ? lengths[firstDocID + i] : 0);
+		for (int i = 0; i < endDocID - firstDocID; i++) out.writeLong(docs.get(i) ? modified[firstDocID + i] : 0);
+		for (int i = 0; i < endDocID - firstDocID; i++) out.writeInt(docs.get(i) ? pathLengths[firstDocID + i] : 0);
+		for (int i = docs.nextSetBit(0); i >= 0; i = docs.nextSetBit(i + 1))
+			out.write(pathBlob, pathStarts[firstDocID + i], pathLengths[firstDocID + i]);
+
+		out.close();
+	}
+
+	// adds the documents of the file that are not deleted, the columns are copied
+	// straight from the mapped file
+	public synchronized void read(String fileName, int firstDocID, int endDocID, BitSet deletedDocs) throws IOException {
+		int n = endDocID - firstDocID;
+		if (n == 0) return;
+
+		MappedFile file = new MappedFile(fileName);
+		ensure(endDocID - 1);
+		int[] fileLengths = new int[n];
+		int[] filePathLengths = new int[n];
+		file.getInts(0, fileLengths, n);
+		MappedInput modifiedColumn = new MappedInput(file, 4L * n);
+		file.getInts(12L * n, filePathLengths, n);
+
+		long pathPosition = 16L * n;
+		for (int i = 0; i < n; i++) {
+			int docID = firstDocID + i;
+			long lastModified = modifiedColumn.readLong();
+			int length = filePathLengths[i];
+			if (length > 0 && !deletedDocs.get(docID)) {
+				if (pathBlob.length - blobLength < length)
+					pathBlob = Arrays.copyOf(pathBlob, Math.max(blobLength + length, 2 * pathBlob.length));
+
+				file.get(pathPosition, pathBlob, blobLength, length);
+				pathStarts[docID] = blobLength;
+				pathLengths[docID] = length;
+				blobLength += length;
+				lengths[docID] = fileLengths[i];
+				modified[docID] = lastModified;
+				if (!live.get(docID)) numDocs++;
+				live.set(docID);
+				pageranks[docID] = pagerankOf(getPath(docID));
+			}
+
+			pathPosition += length;
+		}
+	}
+}
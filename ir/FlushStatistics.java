@@ -0,0 +1,43 @@
+package ir;
+
+/**
+ *   Collects statistics about the partitions written by the spimi buffers.
+ */
+public class FlushStatistics {
+	private int partitions = 0;
+	private long totalEstimatedBytes = 0;
+	private long totalFileBytes = 0;
+	private long minFileBytes = Long.MAX_VALUE;
+	private long maxFileBytes = 0;
+	private long totalTime = 0; // ms
+
+	public synchronized void record(long estimatedBytes, long fileBytes, long time) {
+		partitions++;
+		totalEstimatedBytes += estimatedBytes;
+		totalFileBytes += fileBytes;
+		minFileBytes = Math.min(minFileBytes, fileBytes);
+		maxFileBytes = Math.max(maxFileBytes, fileBytes);
+		totalTime += time;
+	}
+
+	public synchronized int getPartitions() {
+		return partitions;
+	}
+
+	public synchronized void print() {
+		if (partitions == 0) {
+			System.out.println("No partitions were written.");
+			return;
+		}
+
+		System.out.println("Partitions written: " + partitions);
+		System.out.println("Estimated buffer size per partition: " + mb(totalEstimatedBytes / partitions) + " MB");
+		System.out.println("Partition file size: " + mb(totalFileBytes / partitions) + " MB on average, " + 
+				mb(minFileBytes) + " MB min, " + mb(maxFileBytes) + " MB max");
+		System.out.println("Flush time: " + totalTime + " ms in total, " + (totalTime / partitions) + " ms per partition");
+	}
+
+	private static String mb(long bytes) {
+		return String.format("%.2f", bytes / (1024.0 * 1024.0));
+	}
+}
@@ -2,36 +2,44 @@ package ir;
 
 import java.util.*;
 
+/**
+ *   An index in memory. The postings are kept encoded in a PostingsBuffer and
+ *   decoded as a term is searched for, so inserting creates no objects per token.
+ */
 public class HashedIndex implements Index {
 
 	private SearchEngine searchEngine;
-	private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
+	private PostingsBuffer index = new PostingsBuffer();
+	private BitSet deletedDocs = new BitSet();
 
 	public HashedIndex() {
 		this.searchEngine = new SearchEngine(this);
 	}
 
 	public void insert( String token, int docID, int offset ) {
-		if (!index.containsKey(token)) index.put(token, new PostingsList());
-		index.get(token).add(docID, offset);
+		index.add(token, docID, offset);
 	}
 
+	// the terms in the order they were first inserted
 	public Iterator<String> getDictionary() {
-		return index.keySet().iterator();
+		return index.terms();
 	}
 
 	public PostingsList getPostings( String token ) {
-		return index.get(token);
+		return index.getPostings(token);
+	}
+
+	public PostingsCursor getCursor( String token ) {
+		return index.getCursor(token);
+	}
+
+	public int docFrequency( String token ) {
+		return index.docFrequency(token);
 	}
 	
 	public double getPagerank(int docID) {
-		String fullname = docIDs.get("" + docID);
-		int idx = fullname.lastIndexOf("/");
-		String shortname = fullname.substring(idx+1, fullname.length());
-		idx = shortname.indexOf(".");
-		shortname = shortname.substring(0, idx);
-
-		if (pagerankScores.containsKey(shortname)) return pagerankScores.get(shortname);
+		double score = documents.getPagerank(docID);
+		if (!Double.isNaN(score)) return score;
 		else {
 			System.err.println("No pagerank score for that document");
 			return 0.0;
@@ -41,6 +49,19 @@ public class HashedIndex implements Index {
 	public PostingsList search( Query query, int queryType, int rankingType, int structureType ) {
 		return searchEngine.search(query, queryType, rankingType, structureType);
 	}
+
+	public PostingsList search( Query query, int queryType, int rankingType, int structureType, int k ) {
+		return searchEngine.search(query, queryType, rankingType, structureType, k);
+	}
+
+	// the postings of deleted documents are kept, they are skipped when searching
+	public void delete(int docID) {
+		deletedDocs.set(docID);
+	}
+
+	public boolean isDeleted(int docID) {
+		return deletedDocs.get(docID);
+	}
 	
 	public void cleanup() {
 	}
@@ -32,15 +32,21 @@ public interface Index {
     public static final int BIGRAM = 1; 
     public static final int SUBPHRASE = 2; 
 	
-    public HashMap<String, String> docIDs = new HashMap<String,String>();
-    public HashMap<String, Integer> docLengths = new HashMap<String,Integer>();
+    /* The paths, lengths and pagerank scores of the documents by docID */
+    public DocumentStore documents = new DocumentStore();
 		public HashMap<String, Double> pagerankScores = new HashMap<String, Double>();
 
     public void insert( String token, int docID, int offset );
     public Iterator<String> getDictionary();
     public PostingsList getPostings( String token );
+    public PostingsCursor getCursor( String token );
+    public int docFrequency( String token );
 		public double getPagerank(int docID);
     public PostingsList search( Query query, int queryType, int rankingType, int structureType );
+    // at most k documents, the best ones of a ranked query, with the number of all matches as total hits
+    public PostingsList search( Query query, int queryType, int rankingType, int structureType, int k );
+    public void delete( int docID );
+    public boolean isDeleted( int docID );
     public void cleanup();
 
 }
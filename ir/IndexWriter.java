@@ -0,0 +1,173 @@
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ *   Writes the merged index file and the term dictionary with the file position of every term.
+ *
+ *   The offsets are written to a positions file of their own, so that queries
+ *   that only need docIDs and term frequencies never read them.
+ *
+ *   NOTE: file structure of the index file is the id of the codec as one byte
+ *   followed by the postings of the terms one after another, each as
+ *   <block> ...
+ *   <#docs> <position in the positions file> <length of the blocks>
+ *   <last docID> <end of block> <end of positions block> ... for every block, 
+ *   only if there is more than one
+ *   where a block holds the postings of BLOCK_SIZE documents, the last one fewer
+ *   <docID gap> ... for every document
+ *   <#offsets> ... for every document
+ *   and the positions file has a block of offsets for every block of the index file
+ *   <offset gap> ... for every offset of every document of the block
+ *   The sequences of the blocks are encoded with the codec, the three numbers after
+ *   the blocks are variable byte encoded and the skip table has 4 byte ints, so that
+ *   an entry can be read without reading the ones before it. The ends of the blocks
+ *   are counted from the start of the term's blocks in both files. The docID gaps
+ *   continue from the last docID of the previous block, the first counted from 0,
+ *   and the offset gaps start from 0 in every document. The dictionary has the
+ *   position of the numbers after the blocks, since a block is written as soon as
+ *   it is full and the number of documents is only known at the end of the term.
+ */
+public class IndexWriter implements PostingsWriter {
+	public static final int BLOCK_SIZE = PForCodec.BLOCK_SIZE;
+	public static final int SKIP_ENTRY_SIZE = 12; // bytes
+
+	private final OutputStream out;
+	private final OutputStream positionsOut;
+	private final IntCodec codec;
+	private final TermDictionaryWriter dictionary;
+	private ByteBuffer blockBuf;
+	private ByteBuffer positionsBuf = ByteBuffer.allocate(1 << 12);
+	private ByteBuffer skipBuf = ByteBuffer.allocate(1 << 10);
+	private ByteBuffer headerBuf = ByteBuffer.allocate(VByte.MAX_BYTES + 2 * VByte.MAX_LONG_BYTES);
+	private long position = 0;
+	private long positionsPosition = 0;
+
+	private byte[] term = new byte[64];
+	private int termLength;
+	private long blocksStart;
+	private long positionsStart;
+	private int numDocs;
+	private int lastDocID;
+
+	// the postings of the block being filled
+	private final int[] gaps = new int[BLOCK_SIZE];
+	private final int[] numOffsets = new int[BLOCK_SIZE];
+	private int[] offsetGaps = new int[1024];
+	private int blockDocs;
+	private int blockOffsets;
+	private int lastOffset;
+
+	public IndexWriter(String fileName, String positionsFileName, String dictionaryFileName, IntCodec codec) throws IOException {
+		this(fileName, positionsFileName, dictionaryFileName, codec, null);
+	}
+
+	// the files are written through the limiter if there is one
+	public IndexWriter(String fileName, String positionsFileName, String dictionaryFileName, IntCodec codec, 
+			RateLimiter limiter) throws IOException {
+		this.codec = codec;
+		blockBuf = ByteBuffer.allocate(2 * codec.maxEncodedSize(BLOCK_SIZE));
+		out = open(fileName, limiter);
+		positionsOut = open(positionsFileName, limiter);
+		dictionary = new TermDictionaryWriter(open(dictionaryFileName, limiter));
+
+		out.write(codec.id);
+		position++;
+	}
+
+	public void startTerm(byte[] term, int length) throws IOException {
+		if (this.term.length < length) this.term = new byte[Math.max(length, 2 * this.term.length)];
+		System.arraycopy(term, 0, this.term, 0, length);
+		termLength = length;
+		blocksStart = position;
+		positionsStart = positionsPosition;
+		numDocs = 0;
+		lastDocID = 0;
+		blockDocs = 0;
+		blockOffsets = 0;
+		skipBuf.clear();
+	}
+
+	public void startDoc(int docID, int numOffsets) throws IOException {
+		if (blockDocs == BLOCK_SIZE) writeBlock();
+
+		gaps[blockDocs] = docID - lastDocID;
+		this.numOffsets[blockDocs++] = numOffsets;
+		lastDocID = docID;
+		lastOffset = 0;
+		numDocs++;
+	}
+
+	public void addOffset(int offset) throws IOException {
+		if (blockOffsets == offsetGaps.length) offsetGaps = Arrays.copyOf(offsetGaps, 2 * blockOffsets);
+		offsetGaps[blockOffsets++] = offset - lastOffset;
+		lastOffset = offset;
+	}
+
+	public void endTerm() throws IOException {
+		if (blockDocs > 0) writeBlock();
+
+		long termPosition = position;
+		headerBuf.clear();
+		VByte.write(headerBuf, numDocs);
+		VByte.writeLong(headerBuf, positionsStart);
+		VByte.writeLong(headerBuf, termPosition - blocksStart);
+		out.write(headerBuf.array(), 0, headerBuf.position());
+		position += headerBuf.position();
+
+		// a single block needs no skip table
+		if (numDocs > BLOCK_SIZE) {
+			out.write(skipBuf.array(), 0, skipBuf.position());
+			position += skipBuf.position();
+		}
+
+		dictionary.add(term, termLength, numDocs, termPosition);
+	}
+
+	// writes the full block to both files and adds its entry to the skip table of the term
+	private void writeBlock() throws IOException {
+		blockBuf.clear();
+		codec.encode(gaps, 0, blockDocs, blockBuf);
+		codec.encode(numOffsets, 0, blockDocs, blockBuf);
+		out.write(blockBuf.array(), 0, blockBuf.position());
+		position += blockBuf.position();
+
+		positionsBuf = ensure(positionsBuf, codec.maxEncodedSize(blockOffsets));
+		positionsBuf.clear();
+		codec.encode(offsetGaps, 0, blockOffsets, positionsBuf);
+		positionsOut.write(positionsBuf.array(), 0, positionsBuf.position());
+		positionsPosition += positionsBuf.position();
+
+		skipBuf = ensure(skipBuf, skipBuf.position() + SKIP_ENTRY_SIZE);
+		skipBuf.putInt(lastDocID);
+		skipBuf.putInt((int) (position - blocksStart));
+		skipBuf.putInt((int) (positionsPosition - positionsStart));
+
+		blockDocs = 0;
+		blockOffsets = 0;
+	}
+
+	private static OutputStream open(String fileName, RateLimiter limiter) throws IOException {
+		OutputStream fileOut = new FileOutputStream(fileName);
+		if (limiter != null) fileOut = limiter.wrap(fileOut);
+		return new BufferedOutputStream(fileOut, 1 << 16);
+	}
+
+	// a buffer of at least size bytes that keeps the contents of the old one
+	private static ByteBuffer ensure(ByteBuffer buf, int size) {
+		if (buf.capacity() >= size) return buf;
+
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(size, 2 * buf.capacity()));
+		buf.flip();
+		bigger.put(buf);
+		return bigger;
+	}
+
+	public void close() throws IOException {
+		out.close();
+		positionsOut.close();
+		dictionary.close();
+	}
+}
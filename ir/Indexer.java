@@ -2,29 +2,61 @@ package ir;
 
 import java.io.*;
 import java.util.*;
-import org.apache.pdfbox.cos.COSDocument;
-import org.apache.pdfbox.pdfparser.*;
-import org.apache.pdfbox.util.PDFTextStripper;
-import org.apache.pdfbox.pdmodel.PDDocument;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
 
 public class Indexer {
 	public Index index;
-	private int lastDocID = 0;
+	private final String root; // directory of the index files
+	private final int docIDStride; // the number of shards, the docIDs of a shard are this far apart
+	private int lastDocID;
 	private final boolean MEMORY_INDEX = false;
 	private final boolean USE_BIWORD_INDEX = false;
 	private static final String PATH_ROOT = "/tmp/pertoft/";
 	private final String BIWORD_INDEX_ROOT = PATH_ROOT + "biwordindex/";
-	private final String INDEX_FILENAME = "full-index";
-	private final String TERM_INDEX_FILENAME = "term-index";
-	private final String DOC_PATHS_FILENAME = "docpath-index";
-	private final String DOC_LENGTHS_FILENAME = "doclength-index";
+	private final String SEGMENTS_FILENAME = "segments";
 	private final String PAGERANK_FILENAME = "pagerank-scores";
-	private final int IN_MEMORY_LIMIT = 500000; // #tokens
-	private int partitionID = 0;
-	private int memoryConsumption = 0;
-	private HashMap<String,PostingsList> tempIndex = new HashMap<String,PostingsList>();
-	private List<String> partitionFiles = new LinkedList<String>();
-	public Map<String, Long> termIndexPositions = null;
+	private final String TERM_IDS_FILENAME = "term-ids";
+	private final String PDF_TEXT_CACHE_DIR = PATH_ROOT + "pdf-text/";
+	private final long PDF_TIMEOUT = 30000; // ms before the extraction of a pdf is given up
+	private final int QUEUE_CAPACITY = 1024; // #documents waiting to be tokenized
+	private long memoryBudget = Runtime.getRuntime().maxMemory() / 4; // bytes for all spimi buffers together
+	private int mergeFactor = 64; // #partitions merged at once
+	private IntCodec postingsCodec = IntCodec.VBYTE; // of new and merged segments
+	private AtomicInteger partitionID = new AtomicInteger(0);
+	private SpimiBuffer buffer;
+	FlushStatistics flushStatistics = new FlushStatistics();
+	private List<String> partitionFiles = new ArrayList<String>();
+
+	// the segments of the disk index in docID order, replaced as a whole under the write lock
+	// when segments are added or merged. Searches hold the read lock.
+	public volatile List<Segment> segments = Collections.emptyList();
+	final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+	private AtomicInteger nextSegmentNumber = new AtomicInteger(0);
+	private SegmentMerger segmentMerger;
+
+	// decoded postings of the segments, bytes of heap
+	final PostingsCache postingsCache;
+
+	// the documents of the current batch get docIDs from batchFirstDocID up to lastDocID
+	private int batchFirstDocID;
+	private Map<String, Integer> indexedPaths = new HashMap<String, Integer>();
+
+	// the term vectors of the current batch are moved into its segment when it is written
+	TermIDs termIDs = new TermIDs();
+	private TermVectorWriter termVectors = null;
+
+	// docIDs of deleted documents in all segments and the current batch, guarded by segmentsLock
+	final BitSet deletedDocs = new BitSet();
+
+	// parallel ingestion, the walker thread hands documents to the workers through the queue
+	private int numThreads = 1;
+	private ExecutorService workers = null;
+	private BlockingQueue<DocumentTask> documentQueue = null;
+	private static final DocumentTask END_OF_DOCUMENTS = new DocumentTask(-1, null);
+
+	private final PDFExtractor pdfExtractor;
 
 	static {
 		try {
@@ -37,7 +69,9 @@ public class Indexer {
 	}
 
 	private int generateDocID() {
-		return lastDocID++;
+		int docID = lastDocID;
+		lastDocID += docIDStride;
+		return docID;
 	}
 
 	private int generateDocID( String s ) {
@@ -45,7 +79,162 @@ public class Indexer {
 	}
 
 	public Indexer() {
-		index = MEMORY_INDEX ? new HashedIndex() : new DiskIndex(this);
+		this(PATH_ROOT, 0, 1);
+	}
+
+	// an indexer of one of numShards shards with its files in root, its documents get the
+	// docIDs that are shard modulo numShards so that docIDs are unique over all shards
+	public Indexer(String root, int shard, int numShards) {
+		if (shard < 0 || shard >= numShards) throw new IllegalArgumentException("No shard " + shard + " of " + numShards);
+		this.root = root.endsWith("/") ? root : root + "/";
+		docIDStride = numShards;
+		lastDocID = shard;
+		batchFirstDocID = shard;
+
+		File rootDir = new File(this.root);
+		if (!rootDir.exists() && !rootDir.mkdirs()) {
+			System.err.println("Failed to create index file directory " + this.root);
+			System.exit(1);
+		}
+
+		index = MEMORY_INDEX ? new ConcurrentHashedIndex() : new DiskIndex(this);
+		buffer = new SpimiBuffer(this, memoryBudget);
+		segmentMerger = new SegmentMerger(this);
+		postingsCache = new PostingsCache(Runtime.getRuntime().maxMemory() / 16);
+		pdfExtractor = new PDFExtractor(PDF_TEXT_CACHE_DIR, Runtime.getRuntime().availableProcessors(), PDF_TIMEOUT);
+	}
+
+	// an indexer that searches the given index and hands all indexing to other indexers,
+	// like the shards of a ShardedIndexer. It has no index files, buffers, cache or threads
+	// of its own, so a subclass has to override the methods that would use them
+	protected Indexer(Index index) {
+		this.index = index;
+		root = null;
+		docIDStride = 1;
+		postingsCache = null;
+		pdfExtractor = null;
+	}
+
+	// true if the document is one of this indexer's shard, lastDocID always is
+	boolean owns(int docID) {
+		return docID % docIDStride == lastDocID % docIDStride;
+	}
+
+	// sets the number of tokenizer threads, has to be called before any files are processed
+	public void setNumThreads(int numThreads) {
+		if (numThreads < 1) throw new IllegalArgumentException("Need at least one indexing thread");
+		this.numThreads = numThreads;
+	}
+
+	// sets the estimated heap size the spimi buffers may use before they are flushed,
+	// has to be called before any files are processed
+	public void setMemoryBudget(long bytes) {
+		if (bytes < SpimiBuffer.MIN_BUDGET) throw new IllegalArgumentException("Memory budget has to be at least " + SpimiBuffer.MIN_BUDGET + " bytes");
+		memoryBudget = bytes;
+		buffer = new SpimiBuffer(this, memoryBudget);
+	}
+
+	// sets how many partitions are merged into one at a time
+	public void setMergeFactor(int mergeFactor) {
+		if (mergeFactor < 2) throw new IllegalArgumentException("Merge factor has to be at least 2");
+		this.mergeFactor = mergeFactor;
+	}
+
+	// selects the codec of the postings of segments written from now on, "vbyte" or "pfor"
+	public void setPostingsCodec(String name) {
+		postingsCodec = IntCodec.forName(name);
+	}
+
+	long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	IntCodec getPostingsCodec() {
+		return postingsCodec;
+	}
+
+	// limits the disk io of background segment merges, 0 means no limit
+	public void setSegmentMergeRate(long bytesPerSecond) {
+		segmentMerger.setRate(bytesPerSecond);
+	}
+
+	// the heap the decoded postings of frequent terms may use, 0 turns the cache off
+	public void setPostingsCacheSize(long bytes) {
+		postingsCache.setBudget(bytes);
+	}
+
+	public PostingsCache getPostingsCache() {
+		return postingsCache;
+	}
+
+	public long getCacheHits() {
+		return postingsCache.getHits();
+	}
+
+	public long getCacheMisses() {
+		return postingsCache.getMisses();
+	}
+
+	public long getCacheEvictions() {
+		return postingsCache.getEvictions();
+	}
+
+	public void waitForSegmentMerges() {
+		segmentMerger.waitForMerges();
+	}
+
+	private static class DocumentTask {
+		final int docID;
+		final File file;
+
+		DocumentTask(int docID, File file) {
+			this.docID = docID;
+			this.file = file;
+		}
+	}
+
+	// takes documents from the queue until the end marker is seen, each worker owns its own spimi buffer
+	// NOTE: a buffer gets at least the smallest budget, even if the buffers of many threads
+	// then use more than the whole budget together
+	private class IndexingWorker implements Runnable {
+		private final SpimiBuffer workerBuffer = new SpimiBuffer(Indexer.this, Math.max(SpimiBuffer.MIN_BUDGET, memoryBudget / numThreads));
+
+		public void run() {
+			try {
+				while (true) {
+					DocumentTask task = documentQueue.take();
+					if (task == END_OF_DOCUMENTS) break;
+					indexDocument(task.docID, task.file, workerBuffer);
+				}
+
+				workerBuffer.flush();
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void startWorkers() {
+		documentQueue = new ArrayBlockingQueue<DocumentTask>(QUEUE_CAPACITY);
+		workers = Executors.newFixedThreadPool(numThreads);
+		for (int i = 0; i < numThreads; i++) workers.execute(new IndexingWorker());
+	}
+
+	// waits for all queued documents to be indexed and the workers' buffers to be flushed
+	private void stopWorkers() {
+		try {
+			for (int i = 0; i < numThreads; i++) documentQueue.put(END_OF_DOCUMENTS);
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted while waiting for indexing threads");
+			System.exit(1);
+		}
+
+		workers = null;
+		documentQueue = null;
 	}
 
 	public void processFiles( File f ) {
@@ -60,50 +249,169 @@ public class Indexer {
 					}
 				}
 			} else {
+				// documents that are already in the index are not indexed again unless they 
+				// have changed, in which case the old version is deleted first
+				if ( indexedPaths.containsKey( f.getPath() )) {
+					long modified = index.documents.getModified( indexedPaths.get( f.getPath() ));
+					if ( modified == 0 || modified == f.lastModified() ) return;
+					deleteDocument( f.getPath() );
+				}
+
+				if ( !MEMORY_INDEX && termVectors == null ) openTermVectors();
+
+				// docIDs are always given out in the order of the walk so that
+				// the parallel index is identical to the single-threaded one
 				int docID = generateDocID();
-				index.docIDs.put( "" + docID, f.getPath() );
-				try {
-					//  Read the first few bytes of the file to see if it is 
-					// likely to be a PDF 
-					Reader reader = new FileReader( f );
-					char[] buf = new char[4];
-					reader.read( buf, 0, 4 );
-					if ( buf[0] == '%' && buf[1]=='P' && buf[2]=='D' && buf[3]=='F' ) {
-						// We assume this is a PDF file
-						try {
-							String contents = extractPDFContents( f );
-							reader = new StringReader( contents );
-						}
-						catch ( IOException e ) {
-							// Perhaps it wasn't a PDF file after all
-							reader = new FileReader( f );
-						}
-					}
-					else {
-						// We hope this is ordinary text
-						reader = new FileReader( f );
-					}
-					SimpleTokenizer tok = new SimpleTokenizer( reader );
-					int offset = 0;
-					while ( tok.hasMoreTokens() ) {
-						String token = tok.nextToken();
-						insertIntoIndex( docID, token, offset++ );
+				index.documents.add( docID, f.getPath(), f.lastModified() );
+				indexedPaths.put( f.getPath(), docID );
+
+				if ( numThreads == 1 ) {
+					indexDocument( docID, f, buffer );
+				} else {
+					if ( workers == null ) startWorkers();
+					try {
+						documentQueue.put( new DocumentTask( docID, f ));
+					} catch ( InterruptedException e ) {
+						System.err.println("Interrupted while queueing " + f);
+						System.exit(1);
 					}
+				}
+			}
+		}
+	}
 
+	// removes the document from the index, its postings stay on disk until its segment is merged
+	public void deleteDocument(String path) {
+		Integer docID = indexedPaths.remove(path);
+		if (docID == null) return;
 
-					index.docLengths.put( "" + docID, offset );
-					reader.close();
+		index.delete(docID);
+		index.documents.remove(docID);
+	}
+
+	// an update is a delete of the old version followed by adding the new one to the current batch
+	public void updateDocument(File f) {
+		deleteDocument(f.getPath());
+		processFiles(f);
+	}
+
+	// deletes the documents whose files have been removed
+	public void deleteMissingDocuments() {
+		for (String path : new ArrayList<String>(indexedPaths.keySet())) {
+			if (!new File(path).exists()) {
+				System.out.println("Deleting " + path);
+				deleteDocument(path);
+			}
+		}
+	}
+
+	// marks a docID as deleted and saves it with the segment holding the document, documents
+	// of the current batch are saved with the batch's segment
+	void markDeleted(int docID) {
+		segmentsLock.writeLock().lock();
+		try {
+			deletedDocs.set(docID);
+			Segment segment = findSegment(docID);
+			if (segment != null) segment.writeDeletedDocs(deletedDocs);
+
+		} catch (IOException e) {
+			System.err.println("Failed to save deletion of document " + docID);
+
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	private Segment findSegment(int docID) {
+		for (Segment segment : segments) 
+			if (segment.contains(docID)) return segment;
+
+		return null;
+	}
+
+	private void openTermVectors() {
+		try {
+			termVectors = new TermVectorWriter(root + Segment.TERM_VECTORS_FILENAME, 
+					root + Segment.TERM_VECTOR_INDEX_FILENAME, batchFirstDocID);
+		} catch (IOException e) {
+			System.err.println("Failed to create term vector file");
+			System.exit(1);
+		}
+	}
+
+	private void indexDocument( int docID, File f, SpimiBuffer buffer ) {
+		try {
+			//  Read the first few bytes of the file to see if it is 
+			// likely to be a PDF 
+			Reader reader = new FileReader( f );
+			char[] buf = new char[4];
+			reader.read( buf, 0, 4 );
+			reader.close();
+			if ( buf[0] == '%' && buf[1]=='P' && buf[2]=='D' && buf[3]=='F' ) {
+				// We assume this is a PDF file
+				try {
+					String contents = extractPDFContents( f );
+					reader = new StringReader( contents );
 				}
 				catch ( IOException e ) {
-					e.printStackTrace();
+					// Perhaps it wasn't a PDF file after all
+					reader = new FileReader( f );
 				}
 			}
+			else {
+				// We hope this is ordinary text
+				reader = new FileReader( f );
+			}
+			SimpleTokenizer tok = new SimpleTokenizer( reader );
+			Map<String, Integer> termFrequencies = new HashMap<String, Integer>();
+			int offset = 0;
+			while ( tok.hasMoreTokens() ) {
+				String token = tok.nextToken();
+				insertIntoIndex( buffer, docID, token, offset++ );
+
+				Integer tf = termFrequencies.get( token );
+				termFrequencies.put( token, tf == null ? 1 : tf + 1 );
+			}
+
+			if ( !MEMORY_INDEX ) termVectors.add( docID, TermVectors.encode( termFrequencies, termIDs ));
+
+			index.documents.setLength( docID, offset );
+			reader.close();
+
+			// the memory index is searched while documents are inserted, a document
+			// is only found once all of it is there
+			if ( MEMORY_INDEX ) ((ConcurrentHashedIndex) index).publish( docID );
+		}
+		catch ( IOException e ) {
+			e.printStackTrace();
+
+			// the tokens that were inserted before the error must not be found, neither
+			// now nor when a later document of this thread is published
+			if ( MEMORY_INDEX ) {
+				index.delete( docID );
+				((ConcurrentHashedIndex) index).publish( docID );
+			}
 		}
 	}
 
+	// the terms of a document with their frequencies, taken from the term vector
+	// of the document if its segment has one and otherwise by reading the file again
 	public Map<String, Integer> getTermsInDoc(int docID) {
+		segmentsLock.readLock().lock();
+		try {
+			Segment segment = findSegment(docID);
+			byte[] vector = segment != null ? segment.readTermVector(docID) : null;
+			if (vector != null && vector.length > 0) return TermVectors.decode(vector, termIDs);
+
+		} catch (IOException e) {
+			System.err.println("Failed to read term vector of document " + docID);
+
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+
 		Map<String, Integer> terms = new HashMap<String, Integer>();
-		File f = new File(index.docIDs.get("" + docID));
+		File f = new File(index.documents.getPath(docID));
 		
 		// only read files, not directories
 		if (f.canRead() && !f.isDirectory()) {
@@ -161,44 +469,34 @@ public class Indexer {
 
 		System.out.println("Reading existing index.");
 		try {
-			// first read file positions for each term
-			BufferedReader br = new BufferedReader(new FileReader(getTermIndexFilename()));
-			Map<String, Long> tIndex = new HashMap<String, Long>();
-			String line = null;
-			while ((line = br.readLine()) != null) {
-				String[] s = line.split(" ");
-				tIndex.put(s[0], Long.parseLong(s[1]));
-			}
-
-			br.close();
-			termIndexPositions = tIndex;
-
-			// then read the paths for each document
-			br = new BufferedReader(new FileReader(getDocPathsFilename()));
-			line = null;
-			while ((line = br.readLine()) != null) {
-				String[] s = line.split(" ");
-				index.docIDs.put(s[0], s[1]);
+			// first read the segments and the paths and lengths of their documents
+			List<Segment> existing = readSegmentsFile();
+			for (Segment segment : existing) {
+				segment.readDeletedDocs(deletedDocs);
+				segment.readDocuments(index, deletedDocs);
+				lastDocID = Math.max(lastDocID, segment.endDocID);
 			}
 
-			br.close();
-
-			// then read the lengths of the documents
-			br = new BufferedReader(new FileReader(getDocLengthsFilename()));
-			line = null;
-			while ((line = br.readLine()) != null) {
-				String[] s = line.split(" ");
-				index.docLengths.put(s[0], Integer.parseInt(s[1]));
-			}
+			// the documents of the other shards are in the same store
+			for (int docID = index.documents.nextDoc(0); docID >= 0; docID = index.documents.nextDoc(docID + 1))
+				if (owns(docID)) indexedPaths.put(index.documents.getPath(docID), docID);
+			batchFirstDocID = lastDocID;
+			segments = Collections.unmodifiableList(existing);
+			if (new File(getTermIDsFilename()).exists()) termIDs.read(getTermIDsFilename());
+			System.out.println("Read " + existing.size() + " segment(s) with " + index.documents.size() + " documents.");
+			segmentMerger.maybeMerge();
 
 			if (new File(getPagerankFilename()).exists()) {
 				System.out.println("Reading existing pagerank scores");
-				br = new BufferedReader(new FileReader(getPagerankFilename()));
-				line = null;
+				BufferedReader br = new BufferedReader(new FileReader(getPagerankFilename()));
+				String line = null;
 				while ((line = br.readLine()) != null) {
 					String[] s = line.split(" ");
 					index.pagerankScores.put(s[0], Double.parseDouble(s[1]));
 				}
+
+				br.close();
+				index.documents.setPageranks(index.pagerankScores);
 			}
 
 		} catch (Exception e) {
@@ -207,204 +505,192 @@ public class Indexer {
 		}
 	}
 
+	// writes the documents indexed since the last call as a new segment
 	public void finishIndex() {
+		if (workers != null) stopWorkers();
 		if (MEMORY_INDEX) return;
 
 		// write the remaining contents of the temporary index to a partition
-		if (!tempIndex.isEmpty()) partitionFiles.add(writePartition());
+		buffer.flush();
 
-		termIndexPositions = mergePartitions();
-	}
+		if (lastDocID == batchFirstDocID) {
+			System.out.println("No new documents to index.");
+			// a shard that got no documents still has an index, an empty one
+			if (!new File(getSegmentsFilename()).exists()) {
+				segmentsLock.writeLock().lock();
+				try {
+					writeSegmentsFile(segments);
+				} catch (IOException e) {
+					System.err.println("Failed to save segments file");
+					System.exit(1);
+				} finally {
+					segmentsLock.writeLock().unlock();
+				}
+			}
+			return;
+		}
 
-	public boolean indexExists() {
-		return new File(getIndexFilename()).exists() && 
-			new File(getTermIndexFilename()).exists() &&
-			new File(getDocPathsFilename()).exists() &&
-			new File(getDocLengthsFilename()).exists();
-	}
+		flushStatistics.print();
+		flushStatistics = new FlushStatistics();
 
-	public String getIndexFilename() {
-		return PATH_ROOT + INDEX_FILENAME;
-	}
+		String name = newSegmentName();
+		String dir = getSegmentDirectory(name);
+		new File(dir).mkdir();
 
-	public String getTermIndexFilename() {
-		return PATH_ROOT + TERM_INDEX_FILENAME; 
-	}
+		try {
+			mergePartitions(dir);
+			Segment segment = new Segment(name, dir, batchFirstDocID, lastDocID);
+			segment.write(index, docIDStride);
 
-	public String getDocPathsFilename() {
-		return PATH_ROOT + DOC_PATHS_FILENAME;
-	}
+			termVectors.close(lastDocID);
+			termVectors = null;
+			moveFile(root + Segment.TERM_VECTORS_FILENAME, dir + Segment.TERM_VECTORS_FILENAME);
+			moveFile(root + Segment.TERM_VECTOR_INDEX_FILENAME, dir + Segment.TERM_VECTOR_INDEX_FILENAME);
+			termIDs.save(getTermIDsFilename());
+
+			segmentsLock.writeLock().lock();
+			try {
+				segment.writeDeletedDocs(deletedDocs);
+				List<Segment> newSegments = new ArrayList<Segment>(segments);
+				newSegments.add(segment);
+				writeSegmentsFile(newSegments);
+				segments = Collections.unmodifiableList(newSegments);
+			} finally {
+				segmentsLock.writeLock().unlock();
+			}
 
-	public String getDocLengthsFilename() {
-		return PATH_ROOT + DOC_LENGTHS_FILENAME;
+			System.out.println("Added " + name + " with " + segment.numDocs() / docIDStride + " documents.");
+
+		} catch (IOException e) {
+			System.err.println("Failed to save segment " + name);
+			System.exit(1);
+		}
+
+		batchFirstDocID = lastDocID;
+		segmentMerger.maybeMerge();
 	}
 
-	public String getPagerankFilename() {
-		return PATH_ROOT + PAGERANK_FILENAME;
+	// switches from the given adjacent segments to the segment they were merged into
+	void replaceSegments(List<Segment> merged, Segment result) throws IOException {
+		segmentsLock.writeLock().lock();
+		try {
+			List<Segment> newSegments = new ArrayList<Segment>(segments);
+			int i = newSegments.indexOf(merged.get(0));
+			newSegments.subList(i, i + merged.size()).clear();
+			newSegments.add(i, result);
+			// documents deleted while the merge was running are still in the merged segment
+			result.writeDeletedDocs(deletedDocs);
+			writeSegmentsFile(newSegments);
+			segments = Collections.unmodifiableList(newSegments);
+
+			// no search can be reading the old segments while the write lock is held
+			for (Segment segment : merged) segment.delete();
+
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
 	}
 
-	public String extractPDFContents( File f ) throws IOException {
-		FileInputStream fi = new FileInputStream( f );
-		PDFParser parser = new PDFParser( fi );   
-		parser.parse();   
-		fi.close();
-		COSDocument cd = parser.getDocument();   
-		PDFTextStripper stripper = new PDFTextStripper();   
-		String result = stripper.getText( new PDDocument( cd ));  
-		cd.close();
-		return result;
+	private static void moveFile(String from, String to) throws IOException {
+		if (!new File(from).renameTo(new File(to))) throw new IOException("Failed to move " + from + " to " + to);
 	}
 
-	public void insertIntoIndex( int docID, String token, int offset ) {
-		if (MEMORY_INDEX) index.insert(token, docID, offset);
-		else {
-			// spimi
-			if (memoryConsumption < IN_MEMORY_LIMIT) {
-				if (!tempIndex.containsKey(token)) tempIndex.put(token, new PostingsList());
-				tempIndex.get(token).add(docID, offset);
-				memoryConsumption++;
+	String newSegmentName() {
+		return "segment-" + nextSegmentNumber.getAndIncrement();
+	}
 
-			} else {
-				String partitionFile = writePartition();
-				memoryConsumption = 0;
-				tempIndex = new HashMap<String, PostingsList>();
-				partitionFiles.add(partitionFile);
-			}
-		}
+	int getDocIDStride() {
+		return docIDStride;
 	}
 
-	// NOTE: file structure is as follows
-	// <term> <#documents>
-	// <docID1> <offset1> <offset2> ...
-	// ...
-	// <docIDN> ...
-	private String writePartition() {
-		List<String> dictionary = new ArrayList<String>(tempIndex.size());
-		dictionary.addAll(tempIndex.keySet());
-		Collections.sort(dictionary);
+	String getSegmentDirectory(String name) {
+		return root + name + "/";
+	}
 
-		String fileName = PATH_ROOT + "partition-" + partitionID++;
+	public boolean indexExists() {
+		if (!new File(getSegmentsFilename()).exists()) return false;
 
 		try {
-			File partitionFile = new File(fileName);	
-			BufferedWriter bw = new BufferedWriter(new FileWriter(partitionFile));
+			for (Segment segment : readSegmentsFile()) 
+				if (!segment.exists()) return false;
 
-			for (String term : dictionary) {
-				PostingsList pl = tempIndex.get(term);
-				bw.write(term + " " + pl.size() + "\n");			
-				Iterator<PostingsEntry> it = pl.iterator();
-				while (it.hasNext()) {
-					PostingsEntry pe = it.next();
-					bw.write(pe.docID + " ");
+		} catch (IOException e) {
+			return false;
+		}
 
-					for (int offset : pe.offsets) bw.write(offset + " ");
+		return true;
+	}
 
-					bw.write("\n");
-				}
-			}
+	// NOTE: file structure is one line per segment, in docID order
+	// <name> <first docID> <end docID>
+	private List<Segment> readSegmentsFile() throws IOException {
+		List<Segment> result = new ArrayList<Segment>();
+		BufferedReader br = new BufferedReader(new FileReader(getSegmentsFilename()));
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			String[] s = line.split(" ");
+			result.add(Segment.read(s[0], getSegmentDirectory(s[0]), Integer.parseInt(s[1]), Integer.parseInt(s[2])));
+
+			// new segments must not reuse the name of an existing one
+			int number = Integer.parseInt(s[0].substring(s[0].indexOf('-') + 1));
+			if (nextSegmentNumber.get() <= number) nextSegmentNumber.set(number + 1);
+		}
 
-			bw.flush();
-			bw.close();
+		br.close();
+		return result;
+	}
 
-		} catch (Exception e) {
-			//e.printStackTrace();
-			System.err.println("Failed during partition writing");
-			System.exit(1);
-		}
+	// the file is replaced with a rename so that readers see either the old or the new set of segments
+	private void writeSegmentsFile(List<Segment> segments) throws IOException {
+		File tmp = new File(getSegmentsFilename() + ".tmp");
+		BufferedWriter bw = new BufferedWriter(new FileWriter(tmp));
+		for (Segment segment : segments) 
+			bw.write(segment.name + " " + segment.firstDocID + " " + segment.endDocID + "\n");
 
-		return fileName;
+		bw.close();
+		if (!tmp.renameTo(new File(getSegmentsFilename()))) throw new IOException("Failed to replace segments file");
 	}
 
-	private class MergeEntry implements Comparable<MergeEntry> {
-		String term;
-		PostingsList postingsList;
+	public String getSegmentsFilename() {
+		return root + SEGMENTS_FILENAME;
+	}
 
-		MergeEntry(String term, PostingsList pl) {
-			this.term = term;
-			this.postingsList = pl;
-		}
+	public String getTermIDsFilename() {
+		return root + TERM_IDS_FILENAME;
+	}
 
-		public int compareTo(MergeEntry other) {
-			if (this.term.equals(other.term)) {
-				int thisLastDocID = this.postingsList.list.getLast().docID;
-				int otherFirstDocID = other.postingsList.list.getFirst().docID;
-				if (thisLastDocID == otherFirstDocID) {
-					// TODO compare offsets somehow
-					return -1;
+	public String getPagerankFilename() {
+		return root + PAGERANK_FILENAME;
+	}
 
-				} else return thisLastDocID - otherFirstDocID; // maybe wrong here?
+	public String extractPDFContents( File f ) throws IOException {
+		return pdfExtractor.extract( f );
+	}
 
-			} else return this.term.compareTo(other.term);
-		}
+	public void insertIntoIndex( SpimiBuffer buffer, int docID, String token, int offset ) {
+		if (MEMORY_INDEX) index.insert(token, docID, offset);
+		else buffer.insert(docID, token, offset); // spimi
 	}
 
-	// reads a mergeentry from a partition file
-	private MergeEntry readMergeEntry(BufferedReader br) throws IOException {
-		String line = br.readLine();
-		if (line == null) return null;
-		String[] s = line.split(" ");
-		String term = s[0];
-		int numDocs = Integer.parseInt(s[1]);
-		PostingsList pl = new PostingsList();
-		for (int i = 0; i < numDocs; i++) {
-			s = br.readLine().split(" ");
-			int docID = Integer.parseInt(s[0]);
-			PostingsEntry pe = new PostingsEntry(docID);
-			for (int j = 1; j < s.length; j++) pe.offsets.add(Integer.parseInt(s[j]));
-
-			pl.add(pe);
-		}
+	String newPartitionFilename() {
+		return root + "partition-" + partitionID.getAndIncrement();
+	}
 
-		return new MergeEntry(term, pl);
+	// NOTE: the order of the partitions of one thread has to be kept since a document
+	// can be split between two consecutive partitions
+	synchronized void addPartitionFile(String fileName) {
+		partitionFiles.add(fileName);
 	}
 
-	private Map<String, Long> mergePartitions() {
+	private void mergePartitions(String dir) {
 		System.out.println("Merging partition files.");
-		String fileName = PATH_ROOT + INDEX_FILENAME;
-		Map<String, Long> termIndexPositions = new HashMap<String, Long>();
 
 		try {
-			File indexFile = new File(fileName);
-			indexFile.createNewFile();
-			BufferedWriter bw = new BufferedWriter(new FileWriter(indexFile));
-
-			List<BufferedReader> partitionReaders = new ArrayList<BufferedReader>(partitionFiles.size());
-			for (String fname : partitionFiles) partitionReaders.add(new BufferedReader(new FileReader(fname)));
-
-			PriorityQueue<MergeEntry> prioQueue = new PriorityQueue<MergeEntry>();
-			MergeEntry lastMergeEntry = null;
-
-			int totalReaders = partitionReaders.size();
-			int finishedReaders = 0;
-			while (finishedReaders < totalReaders) {
-				Iterator<BufferedReader> it = partitionReaders.iterator();
-				while (it.hasNext()) {
-					BufferedReader br = it.next();
-					MergeEntry me = readMergeEntry(br);
-					if (me == null) {
-						it.remove();
-						finishedReaders++;
-
-					} else prioQueue.add(me);
-				}
-
-				// only read one (the one with highest prio) here
-				MergeEntry me = prioQueue.poll();
-				writeMergeEntry(lastMergeEntry, me, termIndexPositions, bw, indexFile);
-				lastMergeEntry = me;
-			}
-
-			while (!prioQueue.isEmpty()) {
-				MergeEntry me = prioQueue.poll();
-				writeMergeEntry(lastMergeEntry, me, termIndexPositions, bw, indexFile);
-				lastMergeEntry = me;
-			}
-
-			bw.flush();
-			bw.close();
-
-			// remove all partition files
-			for (String pf : partitionFiles) new File(pf).delete();
+			IndexWriter iw = new IndexWriter(dir + Segment.INDEX_FILENAME, dir + Segment.POSITIONS_FILENAME, 
+					dir + Segment.DICTIONARY_FILENAME, postingsCodec);
+			new MergeScheduler(this, mergeFactor, numThreads).merge(partitionFiles, iw);
+			iw.close();
+			partitionFiles.clear();
 
 		} catch (Exception e) {
 			//e.printStackTrace();
@@ -413,46 +699,5 @@ public class Indexer {
 		}
 
 		System.out.println("Index file created.");
-		return termIndexPositions;
-	}
-
-	private void writeMergeEntry(MergeEntry lastMergeEntry, 
-			MergeEntry me, 
-			Map<String, Long> termIndexPositions, 
-			BufferedWriter bw,
-			File indexFile) throws IOException {
-
-		if (lastMergeEntry == null) {
-			// first term
-			termIndexPositions.put(me.term, indexFile.length());
-			bw.write(me.postingsList.getSaveFormatString());
-
-
-		} else if (lastMergeEntry.term.equals(me.term)) {
-			// existing term
-			if (lastMergeEntry.postingsList.list.getLast().docID == me.postingsList.list.getFirst().docID) {
-				Iterator<PostingsEntry> peIt = me.postingsList.iterator();
-				// write the first one's offsets without comma first since they belong to the previous docID
-				PostingsEntry pe = peIt.next();
-				for (int o : pe.offsets) bw.write(" " + o);
-
-				while (peIt.hasNext()) {
-					pe = peIt.next();
-					bw.write("," + pe.docID);
-					for (int o : pe.offsets) bw.write(" " + o);
-				}
-
-			} else {
-				bw.write(",");
-				bw.write(me.postingsList.getSaveFormatString());
-			}
-
-		} else {
-			// new term
-			bw.write("\n");
-			bw.flush(); // NOTE: need to flush here to get the correct file position to store in the map
-			termIndexPositions.put(me.term, indexFile.length());
-			bw.write(me.postingsList.getSaveFormatString());
-		}
 	}
 }
@@ -0,0 +1,43 @@
+package ir;
+
+import java.nio.ByteBuffer;
+
+/**
+ *   Encodes sequences of non-negative integers, such as the docID gaps of a
+ *   postings list. The codec of an index file is given by its first byte, so
+ *   segments written with different codecs can be read and merged together.
+ */
+public abstract class IntCodec {
+	public static final IntCodec VBYTE = new VByteCodec(0, "vbyte");
+	public static final IntCodec PFOR = new PForCodec(1, "pfor");
+	private static final IntCodec[] CODECS = { VBYTE, PFOR };
+
+	public final byte id;
+	public final String name;
+
+	protected IntCodec(int id, String name) {
+		this.id = (byte) id;
+		this.name = name;
+	}
+
+	public static IntCodec forName(String name) {
+		for (IntCodec codec : CODECS) 
+			if (codec.name.equals(name)) return codec;
+
+		throw new IllegalArgumentException("Unknown postings codec " + name);
+	}
+
+	public static IntCodec forID(int id) {
+		if (id < 0 || id >= CODECS.length) throw new IllegalArgumentException("Unknown postings codec id " + id);
+		return CODECS[id];
+	}
+
+	// the most bytes n numbers can be encoded into
+	public abstract int maxEncodedSize(int n);
+
+	// encodes the n numbers starting at values[from]
+	public abstract void encode(int[] values, int from, int n, ByteBuffer out);
+
+	// decodes n numbers into values[from] onwards
+	public abstract void decode(MappedInput in, int[] values, int from, int n);
+}
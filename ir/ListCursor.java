@@ -0,0 +1,59 @@
+package ir;
+
+/**
+ *   A cursor over a postings list in memory. The entries are read by their number,
+ *   so advance can do a binary search.
+ */
+public class ListCursor implements PostingsCursor {
+	private final PostingsList pl;
+	private int i = -1;
+	private int docID = -1;
+	private int positionDoc = -1; // the document the positions have been read from
+	private int positionIndex;
+
+	public ListCursor(PostingsList pl) {
+		this.pl = pl;
+	}
+
+	public int nextDoc() {
+		if (++i >= pl.size()) return docID = NO_MORE_DOCS;
+		return docID = pl.docID(i);
+	}
+
+	public int advance(int target) {
+		if (docID >= target) return docID;
+
+		// the first entry from the next one on with a docID of at least the target
+		int lo = i + 1;
+		int hi = pl.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (pl.docID(mid) < target) lo = mid + 1;
+			else hi = mid;
+		}
+
+		i = lo;
+		return docID = i < pl.size() ? pl.docID(i) : NO_MORE_DOCS;
+	}
+
+	public int docID() {
+		return docID;
+	}
+
+	public int freq() {
+		return pl.freq(i);
+	}
+
+	public int nextPosition() {
+		if (positionDoc != docID) {
+			positionDoc = docID;
+			positionIndex = 0;
+		}
+
+		return pl.offset(i, positionIndex++);
+	}
+
+	public int docFrequency() {
+		return pl.size();
+	}
+}
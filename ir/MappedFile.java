@@ -0,0 +1,80 @@
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *   A read-only memory map of a whole file. A single map can hold at most
+ *   2 GB, so larger files are mapped in several chunks of CHUNK_SIZE bytes.
+ *   Only absolute gets are used, which makes the maps safe to share between threads.
+ */
+public class MappedFile {
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+	private static final int CHUNK_MASK = (int) (CHUNK_SIZE - 1);
+
+	private final MappedByteBuffer[] chunks;
+	private final long length;
+
+	public MappedFile(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			length = channel.size();
+			chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+			for (int i = 0; i < chunks.length; i++) {
+				long start = i * CHUNK_SIZE;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+			}
+
+		} finally {
+			// the maps stay valid after the channel is closed
+			file.close();
+		}
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public byte get(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].get((int) pos & CHUNK_MASK);
+	}
+
+	// a big-endian int, which may span two chunks
+	public int getInt(long pos) {
+		int i = (int) pos & CHUNK_MASK;
+		if (i <= CHUNK_MASK - 3) return chunks[(int) (pos >>> CHUNK_BITS)].getInt(i);
+
+		return (get(pos) & 0xFF) << 24 | (get(pos + 1) & 0xFF) << 16 | (get(pos + 2) & 0xFF) << 8 | (get(pos + 3) & 0xFF);
+	}
+
+	// n bytes starting at pos into dst from off, which may span two chunks
+	// NOTE: the bytes are read through a duplicate of the map, which has a position of its own
+	public void get(long pos, byte[] dst, int off, int n) {
+		while (n > 0) {
+			int i = (int) pos & CHUNK_MASK;
+			int m = (int) Math.min(n, CHUNK_SIZE - i);
+			ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)].duplicate();
+			chunk.position(i);
+			chunk.get(dst, off, m);
+			pos += m;
+			off += m;
+			n -= m;
+		}
+	}
+
+	// n big-endian ints starting at pos
+	public void getInts(long pos, int[] dst, int n) {
+		int i = (int) pos & CHUNK_MASK;
+		if (i <= CHUNK_MASK - 4 * n) {
+			MappedByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+			for (int j = 0; j < n; j++) dst[j] = chunk.getInt(i + 4 * j);
+
+		} else {
+			for (int j = 0; j < n; j++) dst[j] = getInt(pos + 4 * j);
+		}
+	}
+}
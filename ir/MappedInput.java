@@ -0,0 +1,63 @@
+package ir;
+
+/**
+ *   Reads from a position of a mapped file onwards. Every reader keeps its
+ *   own position, so several can read the same map concurrently.
+ */
+public class MappedInput {
+	private final MappedFile file;
+	private long pos;
+
+	public MappedInput(MappedFile file, long pos) {
+		this.file = file;
+		this.pos = pos;
+	}
+
+	public long position() {
+		return pos;
+	}
+
+	public byte readByte() {
+		return file.get(pos++);
+	}
+
+	public int readInt() {
+		int n = file.getInt(pos);
+		pos += 4;
+		return n;
+	}
+
+	public long readLong() {
+		long high = readInt();
+		return high << 32 | readInt() & 0xFFFFFFFFL;
+	}
+
+	public void readInts(int[] dst, int n) {
+		file.getInts(pos, dst, n);
+		pos += 4 * n;
+	}
+
+	// reads a number written by VByte.writeLong
+	public long readVLong() {
+		int b = file.get(pos++);
+		long n = b & 0x7F;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = file.get(pos++);
+			n |= (long) (b & 0x7F) << shift;
+		}
+
+		return n;
+	}
+
+	// reads a number written by VByte
+	public int readVByte() {
+		int b = file.get(pos++);
+		int n = b & 0x7F;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = file.get(pos++);
+			n |= (b & 0x7F) << shift;
+		}
+
+		return n;
+	}
+}
@@ -0,0 +1,90 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *   Merges partition files in several levels. On every level consecutive
+ *   groups of at most mergeFactor partitions are merged into one new partition,
+ *   and the groups of a level are merged in parallel. When no more than 
+ *   mergeFactor partitions are left they are merged into the final output.
+ *   Consecutive groups keep the partition order that PartitionMerger relies on.
+ */
+public class MergeScheduler {
+	private final Indexer indexer;
+	private final int mergeFactor;
+	private final int numThreads;
+
+	public MergeScheduler(Indexer indexer, int mergeFactor, int numThreads) {
+		if (mergeFactor < 2) throw new IllegalArgumentException("Merge factor has to be at least 2");
+		this.indexer = indexer;
+		this.mergeFactor = mergeFactor;
+		this.numThreads = numThreads;
+	}
+
+	// merges the partitions into out and removes all partition files, does not close out
+	public void merge(List<String> partitionFiles, PostingsWriter out) throws IOException {
+		List<String> partitions = new ArrayList<String>(partitionFiles);
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+		try {
+			int level = 0;
+			while (partitions.size() > mergeFactor) {
+				long start = System.currentTimeMillis();
+				int before = partitions.size();
+				partitions = mergeLevel(partitions, pool);
+				long time = System.currentTimeMillis() - start;
+				System.out.println("Merge level " + level++ + ": " + before + " partitions into " + 
+						partitions.size() + " in " + time + " ms");
+			}
+
+			long start = System.currentTimeMillis();
+			new PartitionMerger().merge(partitions, out);
+			for (String pf : partitions) new File(pf).delete();
+			long time = System.currentTimeMillis() - start;
+			System.out.println("Merge level " + level + ": " + partitions.size() + " partitions into the index in " + time + " ms");
+
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private List<String> mergeLevel(List<String> partitions, ExecutorService pool) throws IOException {
+		List<Future<String>> merged = new ArrayList<Future<String>>();
+		for (int i = 0; i < partitions.size(); i += mergeFactor) {
+			final List<String> group = partitions.subList(i, Math.min(i + mergeFactor, partitions.size()));
+			merged.add(pool.submit(new Callable<String>() {
+				public String call() throws IOException {
+					return mergeGroup(group);
+				}
+			}));
+		}
+
+		List<String> result = new ArrayList<String>(merged.size());
+		try {
+			for (Future<String> f : merged) result.add(f.get());
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while merging partitions");
+
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to merge partitions", e.getCause());
+		}
+
+		return result;
+	}
+
+	private String mergeGroup(List<String> group) throws IOException {
+		if (group.size() == 1) return group.get(0);
+
+		String fileName = indexer.newPartitionFilename();
+		PartitionWriter pw = new PartitionWriter(fileName);
+		new PartitionMerger().merge(group, pw);
+		pw.close();
+
+		for (String pf : group) new File(pf).delete();
+		return fileName;
+	}
+}
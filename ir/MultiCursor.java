@@ -0,0 +1,55 @@
+package ir;
+
+import java.util.*;
+
+/**
+ *   Walks the cursors of the same term in several segments one after another.
+ *   The segments cover consecutive docID ranges, so the documents stay in docID order.
+ */
+public class MultiCursor implements PostingsCursor {
+	private final List<PostingsCursor> cursors;
+	private int current = 0;
+	private int docID = -1;
+
+	public MultiCursor(List<PostingsCursor> cursors) {
+		this.cursors = cursors;
+	}
+
+	public int nextDoc() {
+		while (current < cursors.size()) {
+			docID = cursors.get(current).nextDoc();
+			if (docID != NO_MORE_DOCS) return docID;
+			current++;
+		}
+
+		return docID = NO_MORE_DOCS;
+	}
+
+	public int advance(int target) {
+		while (current < cursors.size()) {
+			docID = cursors.get(current).advance(target);
+			if (docID != NO_MORE_DOCS) return docID;
+			current++;
+		}
+
+		return docID = NO_MORE_DOCS;
+	}
+
+	public int docID() {
+		return docID;
+	}
+
+	public int freq() {
+		return cursors.get(current).freq();
+	}
+
+	public int nextPosition() {
+		return cursors.get(current).nextPosition();
+	}
+
+	public int docFrequency() {
+		int df = 0;
+		for (PostingsCursor cursor : cursors) df += cursor.docFrequency();
+		return df;
+	}
+}
@@ -0,0 +1,179 @@
+package ir;
+
+import java.io.*;
+import java.security.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.pdfparser.*;
+import org.apache.pdfbox.util.PDFTextStripper;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ *   Extracts the text of PDF files on a fixed number of threads, giving up
+ *   on a file after a timeout so that one bad PDF cannot stall indexing.
+ *   A parse that does not stop when it is given up on keeps its thread, so
+ *   bad PDFs leave fewer threads for the others but never more threads.
+ *   Extracted text is cached on disk under the size and hash of the file's
+ *   contents, so an unchanged PDF is only parsed once, and files are only hashed
+ *   again when their size or modification time has changed.
+ */
+public class PDFExtractor {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final String cacheDir;
+	private final long timeoutMillis;
+	private final ExecutorService pool;
+	private final Semaphore parsers; // free threads of the pool, a parse gives its own back when it ends
+	private final ConcurrentMap<String, String> keys = new ConcurrentHashMap<String, String>();
+
+	public PDFExtractor(String cacheDir, int numThreads, long timeoutMillis) {
+		if (numThreads < 1) throw new IllegalArgumentException("Need at least one parsing thread");
+
+		this.cacheDir = cacheDir;
+		this.timeoutMillis = timeoutMillis;
+		parsers = new Semaphore(numThreads);
+		pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "pdf-extractor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		new File(cacheDir).mkdirs();
+	}
+
+	// returns the text of the PDF, or an empty string if parsing it takes longer than the timeout
+	// or no thread is free within the timeout, when that many parses are stuck
+	public String extract(final File f) throws IOException {
+		String key = cacheKey(f);
+		File cached = new File(cacheDir + key);
+		if (cached.exists()) return readCached(cached);
+
+		try {
+			if (!parsers.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				System.err.println("Gave up extracting text from " + f + ", no parser was free for " + timeoutMillis + " ms");
+				return "";
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to extract text from " + f);
+		}
+
+		// NOTE: the thread is given back by the parse itself when it ends, so a parse that ignores
+		// the interrupt on timeout keeps its thread. A parse that is given up on before it starts
+		// never runs, and the thread is given back here instead
+		final AtomicBoolean started = new AtomicBoolean(false);
+		Future<String> result = pool.submit(new Callable<String>() {
+			public String call() throws IOException {
+				if (!started.compareAndSet(false, true)) return "";
+
+				try {
+					return parse(f);
+				} finally {
+					parsers.release();
+				}
+			}
+		});
+
+		String text;
+		try {
+			text = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+
+		} catch (TimeoutException e) {
+			giveUp(result, started);
+			System.err.println("Gave up extracting text from " + f + " after " + timeoutMillis + " ms");
+			return "";
+
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Failed to extract text from " + f, e.getCause());
+
+		} catch (InterruptedException e) {
+			giveUp(result, started);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while extracting text from " + f);
+		}
+
+		writeCached(cached, text);
+		return text;
+	}
+
+	private void giveUp(Future<String> result, AtomicBoolean started) {
+		result.cancel(true);
+		if (started.compareAndSet(false, true)) parsers.release();
+	}
+
+	// runs on a thread of the pool
+	protected String parse(File f) throws IOException {
+		FileInputStream fi = new FileInputStream( f );
+		PDFParser parser = new PDFParser( fi );
+		parser.parse();
+		fi.close();
+		COSDocument cd = parser.getDocument();
+		PDFTextStripper stripper = new PDFTextStripper();
+		String result = stripper.getText( new PDDocument( cd ));
+		cd.close();
+		return result;
+	}
+
+	// a file with the same path, size and modification time as before is not hashed again
+	private String cacheKey(File f) throws IOException {
+		String fileKey = f.getPath() + " " + f.length() + " " + f.lastModified();
+		String key = keys.get(fileKey);
+		if (key == null) {
+			key = hashContents(f);
+			keys.put(fileKey, key);
+		}
+
+		return key;
+	}
+
+	// NOTE: the modification time is not part of the cache key, a PDF that is copied or
+	// touched without being changed still finds its text in the cache
+	private static String hashContents(File f) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		InputStream in = new FileInputStream(f);
+		byte[] buf = new byte[BUFFER_SIZE];
+		long size = 0;
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			digest.update(buf, 0, n);
+			size += n;
+		}
+
+		in.close();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(size).append('-');
+		for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	private static String readCached(File cached) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(cached), "UTF-8");
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[BUFFER_SIZE];
+		int n;
+		while ((n = reader.read(buf)) > 0) sb.append(buf, 0, n);
+		reader.close();
+		return sb.toString();
+	}
+
+	// the file is written under another name first so that a concurrent reader never sees half of it
+	private static void writeCached(File cached, String text) throws IOException {
+		File tmp = File.createTempFile(cached.getName(), ".tmp", cached.getParentFile());
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+		writer.write(text);
+		writer.close();
+
+		if (!tmp.renameTo(cached)) tmp.delete();
+	}
+}
@@ -0,0 +1,92 @@
+package ir;
+
+import java.io.*;
+
+/**
+ *   Checks that PDFs whose parse does not stop when interrupted neither stall the
+ *   extraction of the files after them nor make the extractor start more threads.
+ *   More stuck files than there are parsing threads are extracted first, each has
+ *   to be given up on within twice the timeout while no more than THREADS parsing
+ *   threads are alive. When the stuck parses have ended a good file has to come
+ *   back with its text within one timeout.
+ *
+ *   Usage: java ir.PDFExtractorCheck
+ */
+public class PDFExtractorCheck {
+	private static final int THREADS = 2;
+	private static final long TIMEOUT = 200; // ms
+	private static final long STUCK_TIME = 10 * TIMEOUT; // ms before a stuck parse ends
+	private static final int STUCK_FILES = 3 * THREADS;
+
+	public static void main(String[] args) throws Exception {
+		File dir = File.createTempFile("pdf-check", "");
+		dir.delete();
+		dir.mkdirs();
+
+		PDFExtractor extractor = new PDFExtractor(dir.getPath() + "/cache/", THREADS, TIMEOUT) {
+			@Override
+			protected String parse(File f) {
+				if (!f.getName().startsWith("stuck")) return "text of " + f.getName();
+
+				// ignores interrupts until its time is up
+				long end = System.currentTimeMillis() + STUCK_TIME;
+				while (System.currentTimeMillis() < end) {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+					}
+				}
+
+				return "";
+			}
+		};
+
+		boolean ok = true;
+		long stuckStart = System.currentTimeMillis();
+		for (int i = 0; i < STUCK_FILES; i++) {
+			long start = System.currentTimeMillis();
+			String text = extractor.extract(write(dir, "stuck-" + i));
+			long time = System.currentTimeMillis() - start;
+			if (!text.isEmpty() || time > 2 * TIMEOUT) {
+				System.err.println("Stuck file " + i + " gave \"" + text + "\" after " + time + " ms");
+				ok = false;
+			}
+		}
+
+		int threads = parsingThreads();
+		if (threads > THREADS) {
+			System.err.println(threads + " parsing threads alive, expected at most " + THREADS);
+			ok = false;
+		}
+
+		Thread.sleep(Math.max(0, stuckStart + STUCK_TIME + TIMEOUT - System.currentTimeMillis()));
+		long start = System.currentTimeMillis();
+		String text = extractor.extract(write(dir, "good"));
+		long time = System.currentTimeMillis() - start;
+		if (!text.equals("text of good") || time > TIMEOUT) {
+			System.err.println("Good file gave \"" + text + "\" after " + time + " ms");
+			ok = false;
+		}
+
+		if (!ok) System.exit(1);
+		System.out.println("Extracted a good file in " + time + " ms after " + STUCK_FILES + " stuck files on at most " +
+				threads + " parsing threads");
+	}
+
+	private static int parsingThreads() {
+		int n = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet())
+			if (t.getName().equals("pdf-extractor") && t.isAlive()) n++;
+
+		return n;
+	}
+
+	// files of different contents, the cache is keyed on the contents
+	private static File write(File dir, String name) throws IOException {
+		File f = new File(dir, name);
+		Writer writer = new FileWriter(f);
+		writer.write(name);
+		writer.close();
+		return f;
+	}
+}
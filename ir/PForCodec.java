@@ -0,0 +1,124 @@
+package ir;
+
+import java.nio.ByteBuffer;
+
+/**
+ *   Patched frame of reference coding. The numbers are encoded in blocks of
+ *   BLOCK_SIZE, where every number of a block is bit packed with the same
+ *   width and the few numbers that do not fit are stored as exceptions.
+ *   The numbers after the last whole block are encoded with VByte.
+ *
+ *   NOTE: a block is encoded as
+ *   <bit width> <#exceptions> <packed low bits as 4 * width ints>
+ *   <index> <high bits> ...
+ *   where the width, the count and the indexes are single bytes and
+ *   the high bits of an exception are variable byte encoded.
+ */
+public class PForCodec extends IntCodec {
+	public static final int BLOCK_SIZE = 128;
+	private static final int INTS_PER_BIT = BLOCK_SIZE / 32;
+
+	// the packed words of a block, one array per thread since the codec is shared
+	private static final ThreadLocal<int[]> WORDS = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[INTS_PER_BIT * 32 + 1];
+		}
+	};
+
+	public PForCodec(int id, String name) {
+		super(id, name);
+	}
+
+	public int maxEncodedSize(int n) {
+		return n * VByte.MAX_BYTES + 2;
+	}
+
+	public void encode(int[] values, int from, int n, ByteBuffer out) {
+		int i = from;
+		for (; i + BLOCK_SIZE <= from + n; i += BLOCK_SIZE) encodeBlock(values, i, out);
+		for (; i < from + n; i++) VByte.write(out, values[i]);
+	}
+
+	public void decode(MappedInput in, int[] values, int from, int n) {
+		// a list shorter than a block is all VByte and needs no words
+		int[] words = n < BLOCK_SIZE ? null : WORDS.get();
+		int i = from;
+		for (; i + BLOCK_SIZE <= from + n; i += BLOCK_SIZE) decodeBlock(in, values, i, words);
+		for (; i < from + n; i++) values[i] = in.readVByte();
+	}
+
+	private static void encodeBlock(int[] values, int start, ByteBuffer out) {
+		int width = bestWidth(values, start);
+		int mask = (int) ((1L << width) - 1);
+
+		int numExceptions = 0;
+		for (int i = start; i < start + BLOCK_SIZE; i++)
+			if ((values[i] & ~mask) != 0) numExceptions++;
+
+		out.put((byte) width);
+		out.put((byte) numExceptions);
+
+		long word = 0;
+		int bits = 0;
+		for (int i = start; i < start + BLOCK_SIZE; i++) {
+			word |= (long) (values[i] & mask) << bits;
+			bits += width;
+			if (bits >= 32) {
+				out.putInt((int) word);
+				word >>>= 32;
+				bits -= 32;
+			}
+		}
+
+		for (int i = start; i < start + BLOCK_SIZE; i++) {
+			if ((values[i] & ~mask) != 0) {
+				out.put((byte) (i - start));
+				VByte.write(out, values[i] >>> width);
+			}
+		}
+	}
+
+	// the width giving the smallest block, counting the packed bits and the exceptions
+	private static int bestWidth(int[] values, int start) {
+		int bestWidth = 32;
+		int bestSize = Integer.MAX_VALUE;
+		for (int width = 0; width <= 32; width++) {
+			int size = INTS_PER_BIT * 4 * width;
+			for (int i = start; i < start + BLOCK_SIZE && size < bestSize; i++) {
+				int high = width == 32 ? 0 : values[i] >>> width;
+				if (high != 0) size += 1 + VByte.size(high);
+			}
+
+			if (size < bestSize) {
+				bestWidth = width;
+				bestSize = size;
+			}
+		}
+
+		return bestWidth;
+	}
+
+	private static void decodeBlock(MappedInput in, int[] values, int start, int[] words) {
+		int width = in.readByte();
+		int numExceptions = in.readByte() & 0xFF;
+		int numWords = INTS_PER_BIT * width;
+		in.readInts(words, numWords);
+		words[numWords] = 0;
+
+		// NOTE: the unpacking has no branches, every number is taken from the
+		// two words it can span, so the loop is the same for every width
+		int mask = (int) ((1L << width) - 1);
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			int bit = i * width;
+			int w = bit >>> 5;
+			int shift = bit & 31;
+			// shifting the next word in two steps keeps a shift of 32 from becoming a shift of 0
+			values[start + i] = (words[w] >>> shift | (words[w + 1] << 1) << (31 - shift)) & mask;
+		}
+
+		for (int e = 0; e < numExceptions; e++) {
+			int i = in.readByte() & 0xFF;
+			values[start + i] |= in.readVByte() << width;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *   Checks the merge of many small partitions. A stream of documents is cut into
+ *   PARTITIONS partitions the way SpimiBuffer flushes them, so documents are split
+ *   between consecutive partitions, and the partitions are merged by MergeScheduler
+ *   into an index. The postings of the index are compared with the same documents
+ *   in memory, the number of open files is watched during the merge and all
+ *   partition files have to be gone afterwards.
+ *
+ *   Usage: java ir.PartitionMergeCheck [partitions] [merge factor] [threads]
+ */
+public class PartitionMergeCheck {
+	private static final int TOKENS_PER_PARTITION = 50;
+	private static final int TOKENS_PER_DOC = 20;
+	private static final int VOCABULARY = 500;
+
+	public static void main(String[] args) throws Exception {
+		int partitions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int mergeFactor = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+		File dir = File.createTempFile("merge-check", "");
+		dir.delete();
+		dir.mkdirs();
+		Indexer indexer = new Indexer(dir.getPath(), 0, 1);
+
+		// every partition has the next TOKENS_PER_PARTITION tokens of the stream of documents
+		PostingsBuffer expected = new PostingsBuffer();
+		List<String> partitionFiles = new ArrayList<String>();
+		Random random = new Random(42);
+		int token = 0;
+		for (int p = 0; p < partitions; p++) {
+			PostingsBuffer partition = new PostingsBuffer();
+			for (int i = 0; i < TOKENS_PER_PARTITION; i++, token++) {
+				double r = random.nextDouble();
+				String term = "t" + (int) (r * r * VOCABULARY);
+				partition.add(term, token / TOKENS_PER_DOC, token % TOKENS_PER_DOC);
+				expected.add(term, token / TOKENS_PER_DOC, token % TOKENS_PER_DOC);
+			}
+
+			String fileName = indexer.newPartitionFilename();
+			PartitionWriter pw = new PartitionWriter(fileName);
+			partition.write(pw);
+			pw.close();
+			partitionFiles.add(fileName);
+		}
+
+		String fileName = dir.getPath() + "/index";
+		String positionsFileName = fileName + "-positions";
+		String dictionaryFileName = fileName + "-dictionary";
+		OpenFiles openFiles = new OpenFiles();
+		openFiles.start();
+		IndexWriter iw = new IndexWriter(fileName, positionsFileName, dictionaryFileName, IntCodec.PFOR);
+		new MergeScheduler(indexer, mergeFactor, threads).merge(partitionFiles, iw);
+		iw.close();
+		openFiles.interrupt();
+		openFiles.join();
+
+		boolean ok = true;
+		// every merge thread has a group of partitions and its output open, the three files
+		// of the index are open all along and reading /proc/self/fd opens one more
+		int maxOpen = threads * (mergeFactor + 1) + 3 + 1;
+		if (openFiles.peak - openFiles.before > maxOpen) {
+			System.err.println((openFiles.peak - openFiles.before) + " files open during the merge, expected at most " + maxOpen);
+			ok = false;
+		}
+		if (openFiles.count() > openFiles.before) {
+			System.err.println((openFiles.count() - openFiles.before) + " files left open after the merge");
+			ok = false;
+		}
+		for (String pf : partitionFiles) {
+			if (new File(pf).exists()) {
+				System.err.println("Partition file " + pf + " was not removed");
+				ok = false;
+				break;
+			}
+		}
+
+		MappedFile file = new MappedFile(fileName);
+		MappedFile positionsFile = new MappedFile(positionsFileName);
+		TermDictionary dictionary = new TermDictionary(dictionaryFileName);
+		TermPostings postings = new TermPostings();
+		TermDictionary.TermIterator terms = dictionary.iterator();
+		int numTerms = 0;
+		while (terms.next()) {
+			numTerms++;
+			postings.read(file, terms.postingsPosition(), positionsFile, IntCodec.PFOR);
+			String term = terms.termString();
+			if (!samePostings(postings, expected.getPostings(term))) {
+				System.err.println("Postings of " + term + " differ");
+				ok = false;
+			}
+		}
+
+		if (numTerms != expected.size()) {
+			System.err.println(numTerms + " terms in the index, expected " + expected.size());
+			ok = false;
+		}
+
+		for (File f : dir.listFiles()) f.delete();
+		dir.delete();
+
+		if (!ok) System.exit(1);
+		System.out.println("Merged " + partitions + " partitions into " + numTerms + " terms, at most " +
+				(openFiles.peak - openFiles.before) + " more files open during the merge");
+	}
+
+	private static boolean samePostings(TermPostings tp, PostingsList pl) {
+		if (pl == null || tp.numDocs != pl.size()) return false;
+
+		for (int i = 0; i < pl.size(); i++) {
+			if (tp.docIDs[i] != pl.docID(i) || tp.numOffsets[i] != pl.freq(i)) return false;
+			for (int j = 0; j < pl.freq(i); j++)
+				if (tp.offsets[tp.offsetStarts[i] + j] != pl.offset(i, j)) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 *   Keeps the largest number of open files of the process until it is interrupted,
+	 *   counted from /proc/self/fd, so it counts nothing where there is no such directory.
+	 */
+	private static class OpenFiles extends Thread {
+		final int before = count();
+		volatile int peak = before;
+
+		OpenFiles() {
+			setDaemon(true);
+		}
+
+		public void run() {
+			while (!isInterrupted()) {
+				peak = Math.max(peak, count());
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		int count() {
+			String[] fds = new File("/proc/self/fd").list();
+			return fds == null ? 0 : fds.length;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *   K-way merge of partition files or other sorted postings. Every input has one cursor, and the
+ *   cursors are kept in a heap on their current term. All cursors positioned
+ *   on the smallest term are then merged document by document in a second
+ *   heap on their current docID, so only one document per partition is held 
+ *   in memory at any time.
+ */
+public class PartitionMerger {
+	// the read buffers of all partitions share this many bytes
+	private static final int READ_BUFFER_BUDGET = 1 << 24;
+	private static final int MIN_READ_BUFFER_SIZE = 1 << 10;
+	private static final int MAX_READ_BUFFER_SIZE = 1 << 16;
+
+	private static class Cursor {
+		final PostingsReader reader;
+		final int partition; // position in the list of inputs, breaks ties
+
+		Cursor(PostingsReader reader, int partition) {
+			this.reader = reader;
+			this.partition = partition;
+		}
+	}
+
+	private static final Comparator<Cursor> TERM_ORDER = new Comparator<Cursor>() {
+		@Override
+		public int compare(Cursor c1, Cursor c2) {
+			int c = PartitionReader.compareTerms(c1.reader.term(), c1.reader.termLength(), 
+					c2.reader.term(), c2.reader.termLength());
+			return c != 0 ? c : c1.partition - c2.partition;
+		}
+	};
+
+	// NOTE: a document that was split over two partitions of the same thread gets
+	// its offsets in partition order, which is the order they were read in
+	private static final Comparator<Cursor> DOC_ORDER = new Comparator<Cursor>() {
+		@Override
+		public int compare(Cursor c1, Cursor c2) {
+			if (c1.reader.docID() != c2.reader.docID()) return c1.reader.docID() < c2.reader.docID() ? -1 : 1;
+			return c1.partition - c2.partition;
+		}
+	};
+
+	private int[] docOffsets = new int[64];
+
+	// merges the partition files in the given order into out, does not close out
+	public void merge(List<String> partitionFiles, PostingsWriter out) throws IOException {
+		int bufferSize = READ_BUFFER_BUDGET / Math.max(1, partitionFiles.size());
+		bufferSize = Math.max(MIN_READ_BUFFER_SIZE, Math.min(MAX_READ_BUFFER_SIZE, bufferSize));
+
+		List<PostingsReader> readers = new ArrayList<PostingsReader>(partitionFiles.size());
+		for (String fileName : partitionFiles) readers.add(new PartitionReader(fileName, bufferSize));
+		mergeReaders(readers, out);
+	}
+
+	// merges the readers in the given order into out and closes the readers, does not close out
+	public void mergeReaders(List<? extends PostingsReader> readers, PostingsWriter out) throws IOException {
+		PriorityQueue<Cursor> termHeap = new PriorityQueue<Cursor>(Math.max(1, readers.size()), TERM_ORDER);
+		PriorityQueue<Cursor> docHeap = new PriorityQueue<Cursor>(Math.max(1, readers.size()), DOC_ORDER);
+		List<Cursor> current = new ArrayList<Cursor>();
+
+		for (int i = 0; i < readers.size(); i++) {
+			Cursor c = new Cursor(readers.get(i), i);
+			if (c.reader.nextTerm()) termHeap.add(c);
+			else c.reader.close();
+		}
+
+		while (!termHeap.isEmpty()) {
+			// take all cursors positioned on the smallest term
+			Cursor first = termHeap.poll();
+			current.add(first);
+			while (!termHeap.isEmpty() && sameTerm(first, termHeap.peek())) current.add(termHeap.poll());
+
+			// NOTE: a term is only written if it has documents, readers may skip all of them
+			for (Cursor c : current) if (c.reader.nextDoc()) docHeap.add(c);
+			if (!docHeap.isEmpty()) {
+				out.startTerm(first.reader.term(), first.reader.termLength());
+				mergeDocs(docHeap, out);
+				out.endTerm();
+			}
+
+			for (Cursor c : current) {
+				if (c.reader.nextTerm()) termHeap.add(c);
+				else c.reader.close();
+			}
+
+			current.clear();
+		}
+	}
+
+	private void mergeDocs(PriorityQueue<Cursor> docHeap, PostingsWriter out) throws IOException {
+		int docID = -1;
+		int numOffsets = 0;
+
+		while (!docHeap.isEmpty()) {
+			Cursor c = docHeap.poll();
+			PostingsReader pr = c.reader;
+
+			if (pr.docID() != docID) {
+				if (docID >= 0) writeDoc(docID, numOffsets, out);
+				docID = pr.docID();
+				numOffsets = 0;
+			}
+
+			if (docOffsets.length < numOffsets + pr.numOffsets()) 
+				docOffsets = Arrays.copyOf(docOffsets, Math.max(numOffsets + pr.numOffsets(), 2 * docOffsets.length));
+			System.arraycopy(pr.offsets(), 0, docOffsets, numOffsets, pr.numOffsets());
+			numOffsets += pr.numOffsets();
+
+			if (pr.nextDoc()) docHeap.add(c);
+		}
+
+		if (docID >= 0) writeDoc(docID, numOffsets, out);
+	}
+
+	private void writeDoc(int docID, int numOffsets, PostingsWriter out) throws IOException {
+		out.startDoc(docID, numOffsets);
+		for (int i = 0; i < numOffsets; i++) out.addOffset(docOffsets[i]);
+	}
+
+	private static boolean sameTerm(Cursor c1, Cursor c2) {
+		return PartitionReader.compareTerms(c1.reader.term(), c1.reader.termLength(), 
+				c2.reader.term(), c2.reader.termLength()) == 0;
+	}
+}
@@ -0,0 +1,133 @@
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *   Reads a partition file written by PartitionWriter one term and 
+ *   one document at a time. The current term and offsets are kept in 
+ *   reused arrays, so no objects are created while reading.
+ */
+public class PartitionReader implements PostingsReader {
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buf;
+	private boolean eof = false;
+
+	private byte[] term = new byte[64];
+	private int termLength = 0;
+	private boolean inTerm = false;
+
+	private int docID;
+	private int[] offsets = new int[64];
+	private int numOffsets = 0;
+
+	public PartitionReader(String fileName) throws IOException {
+		this(fileName, DEFAULT_BUFFER_SIZE);
+	}
+
+	public PartitionReader(String fileName, int bufferSize) throws IOException {
+		channel = new FileInputStream(fileName).getChannel();
+		buf = ByteBuffer.allocateDirect(bufferSize);
+		buf.limit(0);
+	}
+
+	// moves to the next term, returns false when the partition is exhausted
+	public boolean nextTerm() throws IOException {
+		while (inTerm) nextDoc();
+
+		if (!ensure(1)) return false;
+		ensure(VByte.MAX_BYTES);
+		termLength = VByte.read(buf);
+		if (term.length < termLength) term = new byte[Math.max(termLength, 2 * term.length)];
+		for (int i = 0; i < termLength; ) {
+			if (!ensure(1)) throw new EOFException("Truncated partition file");
+			int n = Math.min(buf.remaining(), termLength - i);
+			buf.get(term, i, n);
+			i += n;
+		}
+
+		inTerm = true;
+		docID = -1;
+		return true;
+	}
+
+	// moves to the next document of the current term, returns false at the end of the term
+	public boolean nextDoc() throws IOException {
+		if (!inTerm) return false;
+
+		ensure(2 * VByte.MAX_BYTES);
+		int gap = VByte.read(buf);
+		if (gap == 0) {
+			inTerm = false;
+			return false;
+		}
+
+		docID += gap;
+		numOffsets = VByte.read(buf);
+		if (offsets.length < numOffsets) offsets = new int[Math.max(numOffsets, 2 * offsets.length)];
+		int offset = 0;
+		for (int i = 0; i < numOffsets; i++) {
+			ensure(VByte.MAX_BYTES);
+			offset += VByte.read(buf);
+			offsets[i] = offset;
+		}
+
+		return true;
+	}
+
+	public byte[] term() {
+		return term;
+	}
+
+	public int termLength() {
+		return termLength;
+	}
+
+	public int docID() {
+		return docID;
+	}
+
+	public int[] offsets() {
+		return offsets;
+	}
+
+	public int numOffsets() {
+		return numOffsets;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// compares two utf-8 encoded terms byte by byte, which gives the same order as 
+	// String.compareTo for all characters the tokenizer produces
+	public static int compareTerms(byte[] t1, int len1, byte[] t2, int len2) {
+		int n = Math.min(len1, len2);
+		for (int i = 0; i < n; i++) {
+			int c = (t1[i] & 0xFF) - (t2[i] & 0xFF);
+			if (c != 0) return c;
+		}
+
+		return len1 - len2;
+	}
+
+	// makes sure at least the given number of bytes are buffered unless the file ends first,
+	// returns false if there is nothing left to read
+	private boolean ensure(int bytes) throws IOException {
+		if (buf.remaining() >= bytes || eof) return buf.hasRemaining();
+
+		buf.compact();
+		while (buf.position() < bytes) {
+			if (channel.read(buf) < 0) {
+				eof = true;
+				break;
+			}
+		}
+
+		buf.flip();
+		return buf.hasRemaining();
+	}
+}
@@ -0,0 +1,77 @@
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *   Writes a sorted run of postings in the binary partition format.
+ *
+ *   NOTE: file structure is as follows
+ *   <term length> <term bytes (utf-8)>
+ *   <docID gap> <#offsets> <offset gap> <offset gap> ...
+ *   ...
+ *   0
+ *   where all numbers are variable byte encoded. The docID gap of the first 
+ *   document of a term is counted from -1 so that a gap is never 0, which 
+ *   makes 0 usable as the end marker of the term's postings.
+ */
+public class PartitionWriter implements PostingsWriter {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private int lastDocID;
+	private int lastOffset;
+
+	public PartitionWriter(String fileName) throws IOException {
+		channel = new FileOutputStream(fileName).getChannel();
+	}
+
+	public void startTerm(byte[] term, int length) throws IOException {
+		ensure(VByte.MAX_BYTES);
+		VByte.write(buf, length);
+		for (int i = 0; i < length; ) {
+			ensure(1);
+			int n = Math.min(buf.remaining(), length - i);
+			buf.put(term, i, n);
+			i += n;
+		}
+
+		lastDocID = -1;
+	}
+
+	public void startDoc(int docID, int numOffsets) throws IOException {
+		ensure(2 * VByte.MAX_BYTES);
+		VByte.write(buf, docID - lastDocID);
+		VByte.write(buf, numOffsets);
+		lastDocID = docID;
+		lastOffset = 0;
+	}
+
+	public void addOffset(int offset) throws IOException {
+		ensure(VByte.MAX_BYTES);
+		VByte.write(buf, offset - lastOffset);
+		lastOffset = offset;
+	}
+
+	public void endTerm() throws IOException {
+		ensure(1);
+		buf.put((byte) 0);
+	}
+
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buf.remaining() < bytes) flush();
+	}
+
+	private void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) channel.write(buf);
+		buf.clear();
+	}
+}
@@ -0,0 +1,258 @@
+package ir;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ *   Postings in memory as streams of variable byte encoded gaps in a ByteBlockPool,
+ *   two streams per term. The doc stream has the docID gap of every document followed
+ *   by its number of offsets, and the offset stream has the offset gaps, counted from
+ *   0 in every document. The number of offsets of the last document of a term is kept
+ *   with the term until the next document starts, when it is written after the gap.
+ *   An insert only writes a few bytes, no objects are created for the postings.
+ */
+public class PostingsBuffer {
+	private final TermHash terms = new TermHash();
+	private final ByteBlockPool pool = new ByteBlockPool();
+
+	// by termID
+	private int[] docStarts = new int[1024]; // addresses of the first slices of the streams
+	private int[] offsetStarts = new int[1024];
+	private int[] docUptos = new int[1024]; // addresses where the streams continue
+	private int[] offsetUptos = new int[1024];
+	private int[] lastDocIDs = new int[1024];
+	private int[] prevDocIDs = new int[1024]; // the document before the last one, -1 if none
+	private int[] lastOffsets = new int[1024];
+	private int[] freqs = new int[1024]; // offsets in the last document
+	private int[] docFreqs = new int[1024];
+
+	public int size() {
+		return terms.size();
+	}
+
+	// bytes in the pool, the term table and the arrays by termID
+	public long sizeInBytes() {
+		return pool.sizeInBytes() + terms.sizeInBytes() + 4L * 9 * docStarts.length;
+	}
+
+	public void add(String token, int docID, int offset) {
+		int termID = terms.add(token);
+		if (termID == docStarts.length) grow();
+
+		if (docFreqs[termID] == 0) {
+			docStarts[termID] = docUptos[termID] = pool.newSlice();
+			offsetStarts[termID] = offsetUptos[termID] = pool.newSlice();
+			docUptos[termID] = pool.writeVInt(docUptos[termID], docID);
+			startDoc(termID, docID);
+
+		} else if (lastDocIDs[termID] != docID) {
+			docUptos[termID] = pool.writeVInt(docUptos[termID], freqs[termID]);
+			docUptos[termID] = pool.writeVInt(docUptos[termID], docID - lastDocIDs[termID]);
+			startDoc(termID, docID);
+		}
+
+		offsetUptos[termID] = pool.writeVInt(offsetUptos[termID], offset - lastOffsets[termID]);
+		lastOffsets[termID] = offset;
+		freqs[termID]++;
+	}
+
+	private void startDoc(int termID, int docID) {
+		prevDocIDs[termID] = docFreqs[termID] == 0 ? -1 : lastDocIDs[termID];
+		lastDocIDs[termID] = docID;
+		lastOffsets[termID] = 0;
+		freqs[termID] = 0;
+		docFreqs[termID]++;
+	}
+
+	public int docFrequency(String token) {
+		int termID = terms.find(token);
+		return termID < 0 ? 0 : docFreqs[termID];
+	}
+
+	// the terms in the order they were first added
+	public Iterator<String> terms() {
+		return new Iterator<String>() {
+			private int termID = 0;
+
+			public boolean hasNext() {
+				return termID < terms.size();
+			}
+
+			public String next() {
+				if (termID >= terms.size()) throw new NoSuchElementException();
+				return terms.getTerm(termID++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	// the postings of the term decoded into a list, null if it has none
+	public PostingsList getPostings(String token) {
+		int termID = terms.find(token);
+		if (termID < 0) return null;
+
+		PostingsList pl = new PostingsList();
+		ByteBlockPool.SliceReader reader = pool.new SliceReader();
+		ByteBlockPool.SliceReader offsets = pool.new SliceReader();
+		reader.init(docStarts[termID], docUptos[termID]);
+		offsets.init(offsetStarts[termID], offsetUptos[termID]);
+
+		int docID = 0;
+		while (!reader.eof()) {
+			docID += reader.readVInt();
+			int freq = reader.eof() ? freqs[termID] : reader.readVInt();
+			int offset = 0;
+			for (int j = 0; j < freq; j++) {
+				offset += offsets.readVInt();
+				pl.add(docID, offset);
+			}
+		}
+
+		return pl;
+	}
+
+	// a cursor that decodes the postings of the term from the pool as it goes, null if it has none
+	public PostingsCursor getCursor(String token) {
+		return getCursor(token, PostingsCursor.NO_MORE_DOCS);
+	}
+
+	// a cursor over the documents of the term up to lastDoc, null if the term has none at all
+	// NOTE: the ends of the streams are taken when the cursor is made, so it can be read
+	// without the lock that the buffer is written under, as long as it was made holding it
+	public PostingsCursor getCursor(String token, int lastDoc) {
+		int termID = terms.find(token);
+		return termID < 0 ? null : new BufferCursor(termID, lastDoc);
+	}
+
+	// writes the postings of all terms in sorted order straight from the pool
+	// NOTE: see PartitionWriter for the file structure
+	public void write(PostingsWriter pw) throws IOException {
+		String[] sorted = new String[terms.size()];
+		for (int termID = 0; termID < sorted.length; termID++) sorted[termID] = terms.getTerm(termID);
+		Arrays.sort(sorted);
+
+		ByteBlockPool.SliceReader docs = pool.new SliceReader();
+		ByteBlockPool.SliceReader offsets = pool.new SliceReader();
+		for (String term : sorted) {
+			int termID = terms.find(term);
+			byte[] termBytes = term.getBytes("UTF-8");
+			pw.startTerm(termBytes, termBytes.length);
+			docs.init(docStarts[termID], docUptos[termID]);
+			offsets.init(offsetStarts[termID], offsetUptos[termID]);
+
+			int docID = 0;
+			while (!docs.eof()) {
+				docID += docs.readVInt();
+				int freq = docs.eof() ? freqs[termID] : docs.readVInt();
+				pw.startDoc(docID, freq);
+
+				int offset = 0;
+				for (int j = 0; j < freq; j++) {
+					offset += offsets.readVInt();
+					pw.addOffset(offset);
+				}
+			}
+
+			pw.endTerm();
+		}
+	}
+
+	private void grow() {
+		int n = 2 * docStarts.length;
+		docStarts = Arrays.copyOf(docStarts, n);
+		offsetStarts = Arrays.copyOf(offsetStarts, n);
+		docUptos = Arrays.copyOf(docUptos, n);
+		offsetUptos = Arrays.copyOf(offsetUptos, n);
+		lastDocIDs = Arrays.copyOf(lastDocIDs, n);
+		prevDocIDs = Arrays.copyOf(prevDocIDs, n);
+		lastOffsets = Arrays.copyOf(lastOffsets, n);
+		freqs = Arrays.copyOf(freqs, n);
+		docFreqs = Arrays.copyOf(docFreqs, n);
+	}
+
+	/**
+	 *   Reads the streams of a term up to where they ended when the cursor was made,
+	 *   and stops at the first document after lastDoc. The offsets of a document that
+	 *   are not asked for are skipped on the next move. Only the last two documents of
+	 *   a term are known without reading the stream, so the number of documents up to
+	 *   lastDoc is only counted from the stream if both of them are after it.
+	 */
+	private class BufferCursor implements PostingsCursor {
+		private final ByteBlockPool.SliceReader docs = pool.new SliceReader();
+		private final ByteBlockPool.SliceReader offsets = pool.new SliceReader();
+		private final ByteBlockPool.SliceReader counter; // null if the document frequency is known
+		private final int lastDoc;
+		private final int lastFreq;
+		private int docFreq;
+		private int docID = -1;
+		private int freq = 0;
+		private int unread = 0; // offsets of the current document left in the stream
+		private int offset;
+
+		BufferCursor(int termID, int lastDoc) {
+			this.lastDoc = lastDoc;
+			docs.init(docStarts[termID], docUptos[termID]);
+			offsets.init(offsetStarts[termID], offsetUptos[termID]);
+			lastFreq = freqs[termID];
+
+			if (lastDocIDs[termID] <= lastDoc) docFreq = docFreqs[termID];
+			else if (prevDocIDs[termID] <= lastDoc) docFreq = docFreqs[termID] - 1;
+			else docFreq = -1;
+
+			if (docFreq < 0) {
+				counter = pool.new SliceReader();
+				counter.init(docStarts[termID], docUptos[termID]);
+			} else counter = null;
+		}
+
+		public int nextDoc() {
+			if (docID == NO_MORE_DOCS) return docID;
+			for (; unread > 0; unread--) offsets.readVInt();
+
+			if (docs.eof()) return docID = NO_MORE_DOCS;
+			docID = docID < 0 ? docs.readVInt() : docID + docs.readVInt();
+			if (docID > lastDoc) return docID = NO_MORE_DOCS;
+			freq = docs.eof() ? lastFreq : docs.readVInt();
+			unread = freq;
+			offset = 0;
+			return docID;
+		}
+
+		public int advance(int target) {
+			while (docID < target) nextDoc();
+			return docID;
+		}
+
+		public int docID() {
+			return docID;
+		}
+
+		public int freq() {
+			return freq;
+		}
+
+		public int nextPosition() {
+			unread--;
+			return offset += offsets.readVInt();
+		}
+
+		public int docFrequency() {
+			if (docFreq >= 0) return docFreq;
+
+			// every document is a gap followed by its number of offsets, but the last one
+			int doc = 0;
+			docFreq = 0;
+			while (!counter.eof()) {
+				doc += counter.readVInt();
+				if (doc > lastDoc) break;
+				docFreq++;
+				if (!counter.eof()) counter.readVInt();
+			}
+
+			return docFreq;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package ir;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *   Keeps decoded postings of segments in memory up to a budget of bytes. Eviction is a
+ *   segmented LRU: new postings go to a probation segment and are moved to the protected
+ *   segment when they are used again, so terms that are only asked for once are evicted
+ *   before the frequent ones. Postings that a search could also read lazily from the index
+ *   are only admitted once their key has been missed before, counted in a small frequency
+ *   sketch that is halved now and then so that old traffic is forgotten.
+ *
+ *   The postings are keyed by segment and term. Segments never change, so the entries
+ *   of a segment that was merged away are simply evicted when they are not used anymore.
+ *
+ *   A lookup does not lock: the postings are found in a concurrent map and a hit is only
+ *   written to a small ring buffer of the thread's stripe. The LRU order, the sketch and
+ *   eviction are kept under one lock, which the thread that fills a buffer takes without
+ *   waiting to replay the buffered hits. A hit that is overwritten before it is replayed
+ *   only costs its entry some recency. Misses take the lock to count their key, they
+ *   read from the index anyway.
+ */
+public class PostingsCache {
+	private static final int PROTECTED_PERCENT = 80;
+	private static final int SKETCH_SIZE = 1 << 16; // counters, a power of 2
+	private static final int MAX_FREQUENCY = 15;
+	private static final int ENTRY_OVERHEAD = 96; // bytes of the key, the map entry and the arrays
+	private static final int READ_BUFFERS = 4; // stripes, a power of 2
+	private static final int READ_BUFFER_SIZE = 32; // hits per stripe, a power of 2
+
+	// all cached postings, the segments below only keep their order and are guarded by lock
+	private final ConcurrentHashMap<String, TermPostings> postings = new ConcurrentHashMap<String, TermPostings>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<String, TermPostings> probation = new LinkedHashMap<String, TermPostings>(16, 0.75f, true);
+	private final LinkedHashMap<String, TermPostings> protectedSegment = new LinkedHashMap<String, TermPostings>(16, 0.75f, true);
+	private volatile long budget;
+	private long probationBytes = 0;
+	private long protectedBytes = 0;
+
+	private final byte[] sketch = new byte[SKETCH_SIZE];
+	private int sketchAdditions = 0;
+
+	private final AtomicReferenceArray<String> readBuffer = new AtomicReferenceArray<String>(READ_BUFFERS * READ_BUFFER_SIZE);
+	private final AtomicIntegerArray readCounts = new AtomicIntegerArray(READ_BUFFERS);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public PostingsCache(long budget) {
+		this.budget = budget;
+	}
+
+	// a budget of 0 turns the cache off
+	public void setBudget(long bytes) {
+		if (bytes < 0) throw new IllegalArgumentException("Cache size can not be negative");
+		lock.lock();
+		try {
+			budget = bytes;
+			drainReadBuffer();
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public static String key(Segment segment, String term) {
+		return segment.name + " " + term;
+	}
+
+	// returns the postings or null, and counts the access either way
+	public TermPostings get(String key) {
+		if (budget == 0) return null;
+
+		TermPostings tp = postings.get(key);
+		if (tp != null) {
+			hits.incrementAndGet();
+			recordHit(key);
+		} else {
+			misses.incrementAndGet();
+			lock.lock();
+			try {
+				increment(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		return tp;
+	}
+
+	// true if postings that were missed should be read whole and put in the cache
+	public boolean admit(String key) {
+		if (budget == 0) return false;
+
+		lock.lock();
+		try {
+			return frequency(key) > 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void put(String key, TermPostings tp) {
+		long weight = weight(tp);
+		lock.lock();
+		try {
+			if (weight > budget * (100 - PROTECTED_PERCENT) / 100 || postings.containsKey(key)) return;
+
+			drainReadBuffer();
+			probation.put(key, tp);
+			postings.put(key, tp);
+			probationBytes += weight;
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void clear() {
+		lock.lock();
+		try {
+			postings.clear();
+			probation.clear();
+			protectedSegment.clear();
+			probationBytes = 0;
+			protectedBytes = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void recordHit(String key) {
+		int stripe = (int) Thread.currentThread().getId() & (READ_BUFFERS - 1);
+		int n = readCounts.getAndIncrement(stripe) & (READ_BUFFER_SIZE - 1);
+		readBuffer.lazySet(stripe * READ_BUFFER_SIZE + n, key);
+
+		// NOTE: if another thread holds the lock it replays this buffer later
+		if (n == READ_BUFFER_SIZE - 1 && lock.tryLock()) {
+			try {
+				drainReadBuffer();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	// replays the buffered hits, a second use moves the postings to the protected segment
+	private void drainReadBuffer() {
+		boolean promoted = false;
+		for (int i = 0; i < readBuffer.length(); i++) {
+			String key = readBuffer.getAndSet(i, null);
+			if (key == null || protectedSegment.get(key) != null) continue;
+
+			// the postings may have been evicted since the hit
+			TermPostings tp = probation.remove(key);
+			if (tp != null) {
+				probationBytes -= weight(tp);
+				protectedSegment.put(key, tp);
+				protectedBytes += weight(tp);
+				promoted = true;
+			}
+		}
+
+		if (promoted) evict();
+	}
+
+	// the protected segment gives its least recently used postings back to probation
+	// when it is full, and probation is evicted from until the cache is within budget
+	private void evict() {
+		long protectedBudget = budget * PROTECTED_PERCENT / 100;
+		Iterator<Map.Entry<String, TermPostings>> it = protectedSegment.entrySet().iterator();
+		while (protectedBytes > protectedBudget && it.hasNext()) {
+			Map.Entry<String, TermPostings> e = it.next();
+			it.remove();
+			protectedBytes -= weight(e.getValue());
+			probation.put(e.getKey(), e.getValue());
+			probationBytes += weight(e.getValue());
+		}
+
+		it = probation.entrySet().iterator();
+		while (probationBytes + protectedBytes > budget && it.hasNext()) {
+			Map.Entry<String, TermPostings> e = it.next();
+			it.remove();
+			postings.remove(e.getKey());
+			probationBytes -= weight(e.getValue());
+			evictions.incrementAndGet();
+		}
+	}
+
+	private static long weight(TermPostings tp) {
+		return ENTRY_OVERHEAD + 4L * (tp.docIDs.length + tp.numOffsets.length + tp.offsetStarts.length + tp.offsets.length);
+	}
+
+	private void increment(String key) {
+		int i = key.hashCode() & (SKETCH_SIZE - 1);
+		if (sketch[i] < MAX_FREQUENCY) sketch[i]++;
+
+		// NOTE: halving all counters keeps the frequencies of the recent accesses
+		if (++sketchAdditions == 10 * SKETCH_SIZE) {
+			for (int j = 0; j < SKETCH_SIZE; j++) sketch[j] >>= 1;
+			sketchAdditions = 0;
+		}
+	}
+
+	private int frequency(String key) {
+		return sketch[key.hashCode() & (SKETCH_SIZE - 1)];
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long sizeInBytes() {
+		lock.lock();
+		try {
+			return probationBytes + protectedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		return postings.size();
+	}
+
+	public String toString() {
+		long h = getHits();
+		long m = getMisses();
+		return String.format("postings cache: %d hits, %d misses (%.1f%% hits), %d evictions, %d terms in %d KB",
+				h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), getEvictions(), size(), sizeInBytes() >> 10);
+	}
+}
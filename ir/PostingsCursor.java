@@ -0,0 +1,29 @@
+package ir;
+
+/**
+ *   Walks the postings of one term in docID order. A cursor starts before
+ *   its first document, so nextDoc or advance has to be called first.
+ *   The positions of the current document are read one at a time with 
+ *   nextPosition, and are only decoded when they are asked for.
+ */
+public interface PostingsCursor {
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	// moves to the next document and returns its docID, or NO_MORE_DOCS at the end
+	public int nextDoc();
+
+	// moves to the first document with a docID of at least target and returns its docID,
+	// or NO_MORE_DOCS if there is none. The cursor never moves backwards.
+	public int advance(int target);
+
+	public int docID();
+
+	// the number of positions of the term in the current document
+	public int freq();
+
+	// the next position of the term in the current document, at most freq() times
+	public int nextPosition();
+
+	// the number of documents of the term
+	public int docFrequency();
+}
@@ -1,48 +1,150 @@
 package ir;
 
-import java.util.LinkedList;
 import java.io.Serializable;
 import java.util.*;
 
 /**
  *   A list of postings for a given word.
+ *
+ *   NOTE: the entries are kept in parallel arrays instead of PostingsEntry objects,
+ *   the offsets of the i:th entry are offsets[offsetStarts[i]] up to offsets[offsetStarts[i + 1]].
+ *   The scores are only allocated when a scored entry is added. Entries can be read
+ *   by their number, get and the iterator give copies of them as PostingsEntry.
  */
 public class PostingsList implements Serializable {
 
-	public LinkedList<PostingsEntry> list = new LinkedList<PostingsEntry>();
+	private int size = 0;
+	private int[] docIDs;
+	private double[] scores = null;
+	private int[] offsetStarts;
+	private int[] offsets;
+	private int totalHits = -1; // of the search this list is the top of, -1 if it is not cut
+
+	public PostingsList() {
+		docIDs = new int[2];
+		offsetStarts = new int[3];
+		offsets = new int[2];
+	}
+
+	// a list of the first size entries of the arrays, which are copied
+	PostingsList(int[] docIDs, int[] offsetStarts, int[] offsets, int size) {
+		this.size = size;
+		this.docIDs = Arrays.copyOf(docIDs, Math.max(size, 2));
+		this.offsetStarts = Arrays.copyOf(offsetStarts, Math.max(size + 1, 3));
+		this.offsets = Arrays.copyOf(offsets, Math.max(offsetStarts[size], 2));
+	}
 
 	public int size() {
-		return list.size();
+		return size;
+	}
+
+	// the number of documents that matched the search, which can be more than the size
+	// of a list of the top scored ones
+	public int getTotalHits() {
+		return totalHits < 0 ? size : totalHits;
+	}
+
+	public void setTotalHits( int totalHits ) {
+		this.totalHits = totalHits;
+	}
+
+	public int docID( int i ) {
+		return docIDs[i];
+	}
+
+	public double score( int i ) {
+		return scores == null ? 0.0 : scores[i];
+	}
+
+	public void setScore( int i, double score ) {
+		if (scores == null) scores = new double[docIDs.length];
+		scores[i] = score;
+	}
+
+	// the number of offsets of the i:th entry
+	public int freq( int i ) {
+		return offsetStarts[i + 1] - offsetStarts[i];
+	}
+
+	// the j:th offset of the i:th entry
+	public int offset( int i, int j ) {
+		return offsets[offsetStarts[i] + j];
 	}
 
 	public PostingsEntry get( int i ) {
-		return list.get( i );
+		PostingsEntry pe = new PostingsEntry(docIDs[i], score(i));
+		for (int j = offsetStarts[i]; j < offsetStarts[i + 1]; j++) pe.offsets.add(offsets[j]);
+		return pe;
 	}
 
 	public Iterator<PostingsEntry> iterator() {
-		return list.iterator();
+		return new Iterator<PostingsEntry>() {
+			private int i = 0;
+
+			public boolean hasNext() {
+				return i < size;
+			}
+
+			public PostingsEntry next() {
+				if (i >= size) throw new NoSuchElementException();
+				return get(i++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
 	public void add(int docID, int offset) {
-		if (list.isEmpty() || list.getLast().docID != docID) {
-			PostingsEntry pe = new PostingsEntry(docID);
-			pe.offsets.add(offset);
-			list.add(pe);
-		
-		} else list.getLast().offsets.add(offset);
+		if (size == 0 || docIDs[size - 1] != docID) addDoc(docID);
+
+		if (offsetStarts[size] == offsets.length) offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+		offsets[offsetStarts[size]++] = offset;
+	}
+
+	// adds an entry without offsets
+	public void addDoc(int docID, double score) {
+		addDoc(docID);
+		if (scores != null || score != 0.0) setScore(size - 1, score);
 	}
 
 	public void add(PostingsEntry pe) {
-		list.add(pe);
+		addDoc(pe.docID, pe.score);
+		for (int offset : pe.offsets) add(pe.docID, offset);
+	}
+
+	public void addAll(PostingsList pl) {
+		for (int i = 0; i < pl.size; i++) {
+			addDoc(pl.docIDs[i], pl.score(i));
+			for (int j = pl.offsetStarts[i]; j < pl.offsetStarts[i + 1]; j++) add(pl.docIDs[i], pl.offsets[j]);
+		}
 	}
-	
+
+	private void addDoc(int docID) {
+		if (size == docIDs.length) {
+			docIDs = Arrays.copyOf(docIDs, 2 * size);
+			if (scores != null) scores = Arrays.copyOf(scores, 2 * size);
+		}
+
+		if (size + 1 == offsetStarts.length) offsetStarts = Arrays.copyOf(offsetStarts, 2 * offsetStarts.length);
+		docIDs[size] = docID;
+		offsetStarts[size + 1] = offsetStarts[size];
+		size++;
+	}
+
+	// keeps the first n entries
+	public void truncate( int n ) {
+		if (n < size) size = n;
+	}
+
 	// no leading and trailing spaces are returned
 	public String getSaveFormatString() {
 		StringBuilder sb = new StringBuilder();
 
-		for (PostingsEntry pe : list) {
-			sb.append(pe.docID + " ");
-			for (int o : pe.offsets) sb.append(o + " ");
+		for (int i = 0; i < size; i++) {
+			sb.append(docIDs[i] + " ");
+			for (int j = offsetStarts[i]; j < offsetStarts[i + 1]; j++) sb.append(offsets[j] + " ");
 			sb.setCharAt(sb.length() - 1, ','); // replace last space with a comma
 		}
 
@@ -51,15 +153,62 @@ public class PostingsList implements Serializable {
 	}
 
 	public void sortOnDocID() {
-		Collections.sort(list, new Comparator<PostingsEntry>() {
-			@Override
-			public int compare(PostingsEntry p1, PostingsEntry p2) {
-				return p1.docID - p2.docID;
-			}
-		});
+		reorder(sortedOrder(false));
 	}
 
+	// highest score first, entries with the same score keep their order
 	public void sortOnScore() {
-		Collections.sort(list);
+		reorder(sortedOrder(true));
+	}
+
+	// a stable bottom-up merge sort of the entry numbers
+	private int[] sortedOrder(boolean onScore) {
+		int[] order = new int[size];
+		int[] tmp = new int[size];
+		for (int i = 0; i < size; i++) order[i] = i;
+
+		for (int width = 1; width < size; width *= 2) {
+			for (int lo = 0; lo < size - width; lo += 2 * width) {
+				int mid = lo + width;
+				int hi = Math.min(lo + 2 * width, size);
+				System.arraycopy(order, lo, tmp, lo, hi - lo);
+
+				// the right entry is only taken first if it goes strictly before the left one
+				int l = lo;
+				int r = mid;
+				for (int k = lo; k < hi; k++) {
+					if (l < mid && (r >= hi || !before(tmp[r], tmp[l], onScore))) order[k] = tmp[l++];
+					else order[k] = tmp[r++];
+				}
+			}
+		}
+
+		return order;
+	}
+
+	private boolean before(int a, int b, boolean onScore) {
+		if (onScore) return Double.compare(score(a), score(b)) > 0;
+		else return docIDs[a] < docIDs[b];
+	}
+
+	private void reorder(int[] order) {
+		int[] newDocIDs = new int[docIDs.length];
+		double[] newScores = scores == null ? null : new double[scores.length];
+		int[] newOffsetStarts = new int[offsetStarts.length];
+		int[] newOffsets = new int[offsets.length];
+
+		for (int k = 0; k < size; k++) {
+			int i = order[k];
+			newDocIDs[k] = docIDs[i];
+			if (scores != null) newScores[k] = scores[i];
+			int n = freq(i);
+			System.arraycopy(offsets, offsetStarts[i], newOffsets, newOffsetStarts[k], n);
+			newOffsetStarts[k + 1] = newOffsetStarts[k] + n;
+		}
+
+		docIDs = newDocIDs;
+		scores = newScores;
+		offsetStarts = newOffsetStarts;
+		offsets = newOffsets;
 	}
 }
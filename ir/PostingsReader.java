@@ -0,0 +1,19 @@
+package ir;
+
+import java.io.IOException;
+
+/**
+ *   Reads postings in term order and, within a term, in docID order.
+ *   The current term and offsets may be kept in arrays that are reused 
+ *   by the next call to nextTerm or nextDoc.
+ */
+public interface PostingsReader {
+	public boolean nextTerm() throws IOException;
+	public byte[] term();
+	public int termLength();
+	public boolean nextDoc() throws IOException;
+	public int docID();
+	public int[] offsets();
+	public int numOffsets();
+	public void close() throws IOException;
+}
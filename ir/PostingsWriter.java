@@ -0,0 +1,14 @@
+package ir;
+
+import java.io.IOException;
+
+/**
+ *   Receives postings in term order and, within a term, in docID order.
+ */
+public interface PostingsWriter {
+	public void startTerm(byte[] term, int length) throws IOException;
+	public void startDoc(int docID, int numOffsets) throws IOException;
+	public void addOffset(int offset) throws IOException;
+	public void endTerm() throws IOException;
+	public void close() throws IOException;
+}
@@ -8,6 +8,10 @@ public class Query {
 	public LinkedList<String> terms = new LinkedList<String>();
 	public HashMap<String, Double> weights = new HashMap<String, Double>();
 
+	// the document frequencies of the terms in the whole index when the query is run on
+	// a shard of it, null if the index's own are used
+	public HashMap<String, Integer> docFrequencies = null;
+
 	public Query() {
 	}
 
@@ -28,6 +32,7 @@ public class Query {
 		Query queryCopy = new Query();
 		queryCopy.terms = (LinkedList<String>) terms.clone();
 		queryCopy.weights = (HashMap<String, Double>) weights.clone();
+		if (docFrequencies != null) queryCopy.docFrequencies = (HashMap<String, Integer>) docFrequencies.clone();
 		return queryCopy;
 	}
 	
@@ -39,7 +44,6 @@ public class Query {
 
 		// weights (without idf) for each term in the original query
 		for (String term : terms) {
-			int dft = indexer.index.getPostings(term).size();
 			weights.put(term, ALPHA / terms.size());
 		}
 
@@ -54,7 +58,7 @@ public class Query {
 			// only use the relevant documents (GAMMA = 0)
 			if (isRelevant) {
 				Map<String, Integer> documentTerms = indexer.getTermsInDoc(pe.docID);
-				int docLength = indexer.index.docLengths.get("" + pe.docID);
+				int docLength = indexer.index.documents.getLength(pe.docID);
 				
 				for (Map.Entry<String, Integer> termEntry : documentTerms.entrySet()) {
 					String term = termEntry.getKey();
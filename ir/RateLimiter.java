@@ -0,0 +1,71 @@
+package ir;
+
+import java.io.*;
+
+/**
+ *   Limits the rate at which bytes are read or written by sleeping when
+ *   the bytes so far are ahead of the allowed rate. One limiter can be shared
+ *   by several streams, which then share the rate.
+ */
+public class RateLimiter {
+	private final double bytesPerMillis;
+	private final long start = System.currentTimeMillis();
+	private long bytes = 0;
+
+	// a rate of 0 or less means no limit
+	public RateLimiter(long bytesPerSecond) {
+		this.bytesPerMillis = bytesPerSecond / 1000.0;
+	}
+
+	public void acquire(int n) throws InterruptedIOException {
+		if (bytesPerMillis <= 0) return;
+
+		long wait;
+		synchronized (this) {
+			bytes += n;
+			wait = start + (long) (bytes / bytesPerMillis) - System.currentTimeMillis();
+		}
+
+		if (wait <= 0) return;
+		try {
+			Thread.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while throttled");
+		}
+	}
+
+	public InputStream wrap(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) acquire(1);
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) acquire(n);
+				return n;
+			}
+		};
+	}
+
+	public OutputStream wrap(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				acquire(1);
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				acquire(len);
+				out.write(b, off, len);
+			}
+		};
+	}
+}
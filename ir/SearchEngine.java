@@ -5,29 +5,54 @@ import java.util.*;
 public class SearchEngine {
 	private Index index;
 
+	// rarest first
+	private static final Comparator<PostingsCursor> DOC_FREQUENCY = new Comparator<PostingsCursor>() {
+		@Override
+		public int compare(PostingsCursor c1, PostingsCursor c2) {
+			if (c1.docFrequency() < c2.docFrequency()) return -1;
+			else if (c1.docFrequency() == c2.docFrequency()) return 0;
+			else return 1;
+		}
+	};
+
 	public SearchEngine(Index index) {
 		this.index = index;
 	}
 
 	public PostingsList search(Query query, int queryType, int rankingType, int structureType) {
-		ArrayList<PostingsList> postingsLists = new ArrayList<PostingsList>(query.terms.size());
+		return search(query, queryType, rankingType, structureType, Integer.MAX_VALUE);
+	}
+
+	// NOTE: queries walk cursors over the postings and only the documents of the result
+	// are collected, so intersections can skip ahead in long lists and only phrase queries
+	// read the positions of the documents. At most k documents are returned, the best
+	// scored ones of a ranked query and the first ones of the others, and the number of
+	// all matches is kept as the total hits of the result
+	public PostingsList search(Query query, int queryType, int rankingType, int structureType, int k) {
+		if (k < 1) throw new IllegalArgumentException("Need to return at least one document");
+
+		ArrayList<String> terms = new ArrayList<String>(query.terms.size()); // of the cursors
+		ArrayList<PostingsCursor> cursors = new ArrayList<PostingsCursor>(query.terms.size());
 		for (String term : query.terms) {
-			PostingsList pl = index.getPostings(term);
-			if (pl != null) postingsLists.add(pl);
+			PostingsCursor cursor = index.getCursor(term);
+			if (cursor == null) continue;
+
+			terms.add(term);
+			cursors.add(cursor);
 		}
 		
 		// TODO: if query is coming from relevance feedback, handle it differently
 
-		if (postingsLists.isEmpty()) return null;
+		if (cursors.isEmpty()) return null;
 
 		switch (queryType) {
-			case Index.INTERSECTION_QUERY: return intersectionQuery(postingsLists, query.terms);
-			case Index.PHRASE_QUERY: return phraseQuery(postingsLists, query.terms);
+			case Index.INTERSECTION_QUERY: return intersectionQuery(cursors, query.terms, k);
+			case Index.PHRASE_QUERY: return phraseQuery(cursors, query.terms, k);
 			case Index.RANKED_QUERY:
 				switch (rankingType) {
-					case Index.TF_IDF: return cosineSimilarity(query, postingsLists);
-					case Index.PAGERANK: return pagerank(postingsLists);
-					case Index.COMBINATION: return rankedCombination(query, postingsLists);
+					case Index.TF_IDF: return cosineSimilarity(query, terms, cursors, false, k);
+					case Index.PAGERANK: return pagerank(cursors, k);
+					case Index.COMBINATION: return cosineSimilarity(query, terms, cursors, true, k);
 					default: return null;
 				}
 
@@ -37,209 +62,180 @@ public class SearchEngine {
 		}
 	}
 
-	private PostingsList intersectionQuery(List<PostingsList> postingsLists, List<String> terms) {
-		if (postingsLists.size() != terms.size()) return null;
-		return postingsLists.size() == 1 ? postingsLists.get(0) : intersection(postingsLists);
+	private PostingsList intersectionQuery(List<PostingsCursor> cursors, List<String> terms, int k) {
+		if (cursors.size() != terms.size()) return null;
+		return cursors.size() == 1 ? liveDocs(cursors.get(0), k) : intersection(cursors, k);
 	}
 
-	private PostingsList intersection(List<PostingsList> postingsLists) {
-		Collections.sort(postingsLists, new Comparator<PostingsList>() {
-			@Override
-			public int compare(PostingsList p1, PostingsList p2) {
-				if (p1.size() < p2.size()) return -1;
-				else if (p1.size() == p2.size()) return 0;
-				else return 1;
-			}
-		});
+	// the rarest list leads and the others skip ahead to its documents
+	private PostingsList intersection(List<PostingsCursor> cursors, int k) {
+		Collections.sort(cursors, DOC_FREQUENCY);
 
-		Iterator<PostingsList> it = postingsLists.iterator();
-		PostingsList intersection = it.next();
-
-		while (it.hasNext())
-			intersection = intersection(intersection, it.next());
-
-		return intersection;
-	}
-
-	private PostingsList intersection(PostingsList p1, PostingsList p2) {
 		PostingsList intersection = new PostingsList();
+		int hits = 0;
+		for (int docID = nextMatch(cursors, next(cursors.get(0))); docID != PostingsCursor.NO_MORE_DOCS; 
+				docID = nextMatch(cursors, next(cursors.get(0))))
+			if (hits++ < k) intersection.addDoc(docID, 0.0);
 
-		Iterator<PostingsEntry> it1 = p1.iterator();
-		Iterator<PostingsEntry> it2 = p2.iterator();
-		PostingsEntry pe1 = next(it1);
-		PostingsEntry pe2 = next(it2);
-
-		while (pe1 != null && pe2 != null) {
-			if (pe1.docID == pe2.docID) {
-				intersection.add(pe1);
-				pe1 = next(it1);
-				pe2 = next(it2);
-
-			} else if (pe1.docID < pe2.docID) 
-				pe1 = next(it1);
-			else 
-				pe2 = next(it2);
-		}
-
+		intersection.setTotalHits(hits);
 		return intersection;
 	}
 
-	private PostingsList union(List<PostingsList> postingsLists) {
-		PostingsList result = new PostingsList();
-
-		Iterator<PostingsList> it = postingsLists.iterator();
-		while (it.hasNext()) result = union(result, it.next());
-
-		return result;
-	}
-
-	private PostingsList union(PostingsList p1, PostingsList p2) {
-		PostingsList result = new PostingsList();
-		Iterator<PostingsEntry> it1 = p1.iterator();
-		Iterator<PostingsEntry> it2 = p2.iterator();
-		PostingsEntry pe1 = next(it1);
-		PostingsEntry pe2 = next(it2);
-
-		while (pe1 != null && pe2 != null) {
-			if (pe1.docID < pe2.docID) {
-				result.add(new PostingsEntry(pe1.docID, 0.0));
-				pe1 = next(it1);
-			} else if (pe1.docID == pe2.docID) {
-				result.add(new PostingsEntry(pe1.docID, 0.0));
-				pe1 = next(it1);
-				pe2 = next(it2);
-			} else {
-				result.add(new PostingsEntry(pe2.docID, 0.0));
-				pe2 = next(it2);
-			}
-		}
-		
-		// add remainder
-		if (pe1 == null) {
-			while (pe2 != null) {
-				result.add(new PostingsEntry(pe2.docID, 0.0));
-				pe2 = next(it2);
-			}
-		} else {
-			while (pe1 != null) {
-				result.add(new PostingsEntry(pe1.docID, 0.0));
-				pe1 = next(it1);
+	// the first document from the one the first cursor is on that all cursors have,
+	// the cursors are left on it
+	private int nextMatch(List<PostingsCursor> cursors, int docID) {
+		int i = 1;
+		while (docID != PostingsCursor.NO_MORE_DOCS && i < cursors.size()) {
+			int d = advance(cursors.get(i), docID);
+			if (d == docID) i++;
+			else {
+				// start over from the first cursor with the larger document
+				docID = advance(cursors.get(0), d);
+				i = 1;
 			}
 		}
 
-		return result;
+		return docID;
 	}
 
-	private PostingsList phraseQuery(List<PostingsList> postingsLists, List<String> terms) {
-		if (postingsLists.size() == 1) return postingsLists.get(0);
-		if (postingsLists.size() < terms.size()) return null;
-
-		Iterator<PostingsList> it = postingsLists.iterator();
-		PostingsList p1 = it.next();
-		PostingsList p2 = it.next();
-		PostingsList phraseIntersection = phraseIntersection(p1, p2);
-
-		while (it.hasNext()) 
-			phraseIntersection = phraseIntersection(phraseIntersection, it.next());
-
-		return phraseIntersection;
-	}
+	private PostingsList phraseQuery(List<PostingsCursor> cursors, List<String> terms, int k) {
+		// NOTE: a term that is missing has to be checked first, a shard can have only one of the terms
+		if (cursors.size() < terms.size()) return null;
+		if (cursors.size() == 1) return liveDocs(cursors.get(0), k);
+
+		// the documents are matched rarest first, the positions in phrase order where
+		// the i:th term has to be at the start position + i
+		List<PostingsCursor> byFrequency = new ArrayList<PostingsCursor>(cursors);
+		Collections.sort(byFrequency, DOC_FREQUENCY);
+
+		PostingsList phrases = new PostingsList();
+		int hits = 0;
+		int[] positions = new int[cursors.size()];
+		int[] remaining = new int[cursors.size()];
+		for (int docID = nextMatch(byFrequency, next(byFrequency.get(0))); docID != PostingsCursor.NO_MORE_DOCS; 
+				docID = nextMatch(byFrequency, next(byFrequency.get(0)))) {
+			for (int i = 0; i < cursors.size(); i++) {
+				remaining[i] = cursors.get(i).freq();
+				positions[i] = -1;
+			}
 
-	private PostingsList phraseIntersection(PostingsList p1, PostingsList p2) {
-		PostingsList phraseIntersection = new PostingsList();
-		Iterator<PostingsEntry> it1 = p1.iterator();
-		Iterator<PostingsEntry> it2 = p2.iterator();
-		PostingsEntry pe1 = next(it1);
-		PostingsEntry pe2 = next(it2);
-
-		while (pe1 != null && pe2 != null) {
-			if (pe1.docID == pe2.docID) {
-				for (int o1 : pe1.offsets) {
-					for (int o2 : pe2.offsets) {
-						if (o2 - o1 == 1) phraseIntersection.add(pe1.docID, o2);
-						else if (o2 > o1) break;
+			boolean found = false;
+			while (remaining[0] > 0) {
+				int start = cursors.get(0).nextPosition();
+				remaining[0]--;
+
+				boolean match = true;
+				for (int i = 1; i < cursors.size() && match; i++) {
+					// positions only move forward, since the start positions do
+					while (positions[i] < start + i && remaining[i] > 0) {
+						positions[i] = cursors.get(i).nextPosition();
+						remaining[i]--;
 					}
+
+					match = positions[i] == start + i;
 				}
 
-				pe1 = next(it1);
-				pe2 = next(it2);
+				if (!match) continue;
+				if (!found) {
+					found = true;
+					hits++;
+				}
 
-			} else if (pe1.docID < pe2.docID) pe1 = next(it1);
-			else pe2 = next(it2);
+				if (hits <= k) phrases.add(docID, start + cursors.size() - 1);
+			}
 		}
 
-		return phraseIntersection;
+		phrases.setTotalHits(hits);
+		return phrases;
 	}
 	
-	private PostingsList cosineSimilarity(Query query, List<PostingsList> postingsLists) {
-		HashMap<Integer, Double> docScores = new HashMap<Integer, Double>();
-		final int N = index.docIDs.size();
-		
-		for (String term : query.terms) {
-			PostingsList pl = index.getPostings(term);
-			if (pl == null) continue;
-
-			final int dft = pl.size();
-			final double idft = Math.log10(((double) N) / dft);
-			double wtq = 1 * idft * query.weights.get(term);
-
-			Iterator<PostingsEntry> peIt = pl.iterator();
-			while (peIt.hasNext()) {
-				PostingsEntry pe = peIt.next();
-				final int tf = pe.offsets.size();
-				final double wtd = tf * idft;
-
-				if (!docScores.containsKey(pe.docID)) docScores.put(pe.docID, 0.0);
-				double oldScore = docScores.get(pe.docID);
-				double newScore = wtq * wtd + oldScore;
-				docScores.put(pe.docID, newScore);
-			}
+	// NOTE: the documents are scored one at a time over all cursors, so no score is
+	// kept per posting, and only the k best are kept. The pagerank of the document
+	// is added to the score of a combined ranking
+	private PostingsList cosineSimilarity(Query query, List<String> terms, List<PostingsCursor> cursors, boolean combined, int k) {
+		final int N = index.documents.size();
+		double[] wtqs = new double[cursors.size()];
+		double[] idfs = new double[cursors.size()];
+		int[] docIDs = new int[cursors.size()];
+		for (int i = 0; i < cursors.size(); i++) {
+			final int dft = query.docFrequencies == null ? cursors.get(i).docFrequency() : query.docFrequencies.get(terms.get(i));
+			idfs[i] = Math.log10(((double) N) / dft);
+			wtqs[i] = 1 * idfs[i] * query.weights.get(terms.get(i));
+			docIDs[i] = next(cursors.get(i));
 		}
-		
-		PostingsList result = new PostingsList();
-		for (int docID : docScores.keySet()) {
+
+		TopScores top = new TopScores(k);
+		for (int docID = min(docIDs); docID != PostingsCursor.NO_MORE_DOCS; docID = min(docIDs)) {
+			double score = 0.0;
+			for (int i = 0; i < cursors.size(); i++) {
+				if (docIDs[i] != docID) continue;
+
+				// the term frequency is stored with the docID, so no positions are read
+				final int tf = cursors.get(i).freq();
+				final double wtd = tf * idfs[i];
+				score += wtqs[i] * wtd;
+				docIDs[i] = next(cursors.get(i));
+			}
+
 			// NOTE: approximation for euclidean length here
 			// should be dividing by the product of the 2-norms of the query and document
 			// TODO: maybe pre-calculate that somewhere?
-			double cosSim = docScores.get(docID) / index.docLengths.get("" + docID); 
-			PostingsEntry pe = new PostingsEntry(docID, cosSim);
-			result.add(pe);
+			double cosSim = score / index.documents.getLength(docID); 
+			if (!combined) top.offer(docID, cosSim);
+			else {
+				double pagerank = index.getPagerank(docID);
+
+				// TODO: fancy function here
+				// TODO: maybe try 
+				top.offer(docID, 1.0 * cosSim + 100.0 * pagerank); 
+			}
 		}
 
-		result.sortOnScore();
-		return result;
+		return top.toPostingsList();
 	}
 
-	private PostingsList pagerank(List<PostingsList> postingsLists) {
-		PostingsList unionPL = union(postingsLists);
-		Iterator<PostingsEntry> it = unionPL.iterator();
-		while (it.hasNext()) {
-			PostingsEntry pe = it.next();
-			pe.score = index.getPagerank(pe.docID);
+	private PostingsList pagerank(List<PostingsCursor> cursors, int k) {
+		int[] docIDs = new int[cursors.size()];
+		for (int i = 0; i < cursors.size(); i++) docIDs[i] = next(cursors.get(i));
+
+		TopScores top = new TopScores(k);
+		for (int docID = min(docIDs); docID != PostingsCursor.NO_MORE_DOCS; docID = min(docIDs)) {
+			top.offer(docID, index.getPagerank(docID));
+			for (int i = 0; i < cursors.size(); i++) 
+				if (docIDs[i] == docID) docIDs[i] = next(cursors.get(i));
 		}
 		
-		unionPL.sortOnScore();
-		return unionPL;
+		return top.toPostingsList();
 	}
 
-	private PostingsList rankedCombination(Query query, List<PostingsList> postingsLists) {
-		PostingsList pl = cosineSimilarity(query, postingsLists);
-		Iterator<PostingsEntry> it = pl.iterator();
-		while (it.hasNext()) {
-			PostingsEntry pe = it.next();
-			double cosSim = pe.score;
-			double pagerank = index.getPagerank(pe.docID);
-
-			// TODO: fancy function here
-			// TODO: maybe try 
-			pe.score = 1.0 * cosSim + 100.0 * pagerank; 
-		}
+	// the postings of deleted documents are skipped here
+	private int next(PostingsCursor cursor) {
+		int docID = cursor.nextDoc();
+		while (docID != PostingsCursor.NO_MORE_DOCS && index.isDeleted(docID)) docID = cursor.nextDoc();
+		return docID;
+	}
+
+	private int advance(PostingsCursor cursor, int target) {
+		int docID = cursor.advance(target);
+		while (docID != PostingsCursor.NO_MORE_DOCS && index.isDeleted(docID)) docID = cursor.nextDoc();
+		return docID;
+	}
 
-		pl.sortOnScore();
-		return pl;
+	// the first k live documents with their positions
+	private PostingsList liveDocs(PostingsCursor cursor, int k) {
+		PostingsList result = new PostingsList();
+		int hits = 0;
+		for (int docID = next(cursor); docID != PostingsCursor.NO_MORE_DOCS; docID = next(cursor))
+			if (hits++ < k) 
+				for (int i = cursor.freq(); i > 0; i--) result.add(docID, cursor.nextPosition());
+
+		result.setTotalHits(hits);
+		return result;
 	}
 
-	private PostingsEntry next(Iterator<PostingsEntry> it) {
-		return it.hasNext() ? it.next() : null;
+	private static int min(int[] docIDs) {
+		int min = PostingsCursor.NO_MORE_DOCS;
+		for (int docID : docIDs) min = Math.min(min, docID);
+		return min;
 	}
 }
@@ -18,7 +18,7 @@ import javax.swing.event.*;
 public class SearchGUI extends JFrame {
 
 	/**  The indexer creating the search index. */
-	static Indexer indexer = new Indexer();
+	static Indexer indexer;
 
 	/**  The query posed by the user, used in search() and relevanceFeedbackSearch() */
 	private Query query; 
@@ -41,6 +41,9 @@ public class SearchGUI extends JFrame {
 	/**  The word structure type (either unigram, bigram, or subphrase). */
 	int structureType = Index.UNIGRAM;
 
+	/**  The number of documents shown of a search, the best ones of a ranked search. */
+	static final int MAX_RESULTS = 100;
+
 	/**  Lock to prevent simultaneous access to the index. */
 	Object indexLock = new Object();
 
@@ -166,24 +169,22 @@ public class SearchGUI extends JFrame {
 				query = new Query( queryString );
 				// Search and print results. Access to the index is synchronized since
 				// we don't want to search at the same time we're indexing new files
-				// (this might corrupt the index).
-				synchronized ( indexLock ) {
-					results = indexer.index.search( query, queryType, rankingType, structureType ); 
-				}
+				// (this might corrupt the index), unless it is a concurrent index.
+				results = search();
 				StringBuffer buf = new StringBuffer();
 				if ( results != null ) {
-					buf.append( "\nFound " + results.size() + " matching document(s)\n\n" );
+					buf.append( "\nFound " + results.getTotalHits() + " matching document(s)" + shown() + "\n\n" );
 					for ( int i=0; i<results.size(); i++ ) {
 						buf.append( " " + i + ". " );
-						String filename = indexer.index.docIDs.get( "" + results.get(i).docID );
+						String filename = indexer.index.documents.getPath( results.docID(i) );
 						if ( filename == null ) {
-							buf.append( "" + results.get(i).docID );
+							buf.append( "" + results.docID(i) );
 						}
 						else {
 							buf.append( filename );
 						}
 						if ( queryType == Index.RANKED_QUERY ) {
-							buf.append( "   " + String.format( "%.5f", results.get(i).score )); 
+							buf.append( "   " + String.format( "%.5f", results.score(i) )); 
 						}
 						buf.append( "\n" );
 					}
@@ -215,22 +216,20 @@ public class SearchGUI extends JFrame {
 
 					// Perform a new search with the weighted and expanded query. Access to the index is 
 					// synchronized since we don't want to search at the same time we're indexing new files
-					// (this might corrupt the index).
-					synchronized ( indexLock ) {
-						results = indexer.index.search( query, queryType, rankingType, structureType );
-					}
+					// (this might corrupt the index), unless it is a concurrent index.
+					results = search();
 					buf.append( "\nSearch after relevance feedback:\n" );
-					buf.append( "\nFound " + results.size() + " matching document(s)\n\n" );
+					buf.append( "\nFound " + results.getTotalHits() + " matching document(s)" + shown() + "\n\n" );
 					for ( int i=0; i<results.size(); i++ ) {
 						buf.append( " " + i + ". " );
-						String filename = indexer.index.docIDs.get( "" + results.get(i).docID );
+						String filename = indexer.index.documents.getPath( results.docID(i) );
 						if ( filename == null ) {
-							buf.append( "" + results.get(i).docID );
+							buf.append( "" + results.docID(i) );
 						}
 						else {
 							buf.append( filename );
 						}
-						buf.append( "   " + String.format( "%.5f", results.get(i).score ) + "\n" );
+						buf.append( "   " + String.format( "%.5f", results.score(i) ) + "\n" );
 					}
 				}
 				else {
@@ -329,8 +328,35 @@ public class SearchGUI extends JFrame {
 	/* ----------------------------------------------- */
 
 
+	/**
+	 *   Searches for the current query, at most MAX_RESULTS documents are
+	 *   returned. A concurrent memory index is searched in a snapshot of the
+	 *   documents that are done, so it does not wait for indexing to finish.
+	 */
+	private PostingsList search() {
+		if ( indexer.index instanceof ConcurrentHashedIndex ) {
+			return indexer.index.search( query, queryType, rankingType, structureType, MAX_RESULTS );
+		}
+		synchronized ( indexLock ) {
+			return indexer.index.search( query, queryType, rankingType, structureType, MAX_RESULTS );
+		}
+	}
+
+
+	/**
+	 *   Tells how many of the results are shown if not all of them are.
+	 */
+	private String shown() {
+		if ( results.size() == results.getTotalHits() ) return "";
+		return ", showing the first " + results.size();
+	}
+
+
 	/**
 	 *   Calls the indexer to index the chosen directory structure.
+	 *   If an index already exists, only the files that are not in it
+	 *   yet or have changed since are indexed, and they are added to it 
+	 *   as a new segment. Documents whose files are gone are deleted.
 	 *   Access to the index is synchronized since we don't want to 
 	 *   search at the same time we're indexing new files (this might 
 	 *   corrupt the index).
@@ -339,16 +365,17 @@ public class SearchGUI extends JFrame {
 		if (indexer.indexExists()) {
 			System.out.println("Index file already exists.");
 			indexer.readExistingIndex();
-		} else {
-			synchronized ( indexLock ) {
-				resultWindow.setText( "\n  Indexing, please wait..." );
-				for ( int i=0; i<dirNames.size(); i++ ) {
-					File dokDir = new File( dirNames.get( i ));
-					System.out.println("Indexing " + dokDir);
-					indexer.processFiles( dokDir );
-				}
-				indexer.finishIndex();
+		}
+
+		synchronized ( indexLock ) {
+			resultWindow.setText( "\n  Indexing, please wait..." );
+			for ( int i=0; i<dirNames.size(); i++ ) {
+				File dokDir = new File( dirNames.get( i ));
+				System.out.println("Indexing " + dokDir);
+				indexer.processFiles( dokDir );
 			}
+			indexer.deleteMissingDocuments();
+			indexer.finishIndex();
 		}
 		
 		resultWindow.setText( "\n  Done!" );
@@ -384,6 +411,12 @@ public class SearchGUI extends JFrame {
 		}
 		*/
 		
+		// the shards have to be known before the other options are given to the indexer
+		LinkedList<String> shardDirs = new LinkedList<String>();
+		for (int i = 0; i + 1 < args.length; i++) 
+			if (args[i].equals("-s")) shardDirs.add(args[++i]);
+		indexer = shardDirs.isEmpty() ? new Indexer() : new ShardedIndexer(shardDirs);
+
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-d")) {
 				i++;
@@ -397,6 +430,26 @@ public class SearchGUI extends JFrame {
 					if (i < args.length) articleNames = args[i];
 					else performPagerank = false;
 				}
+			} else if (args[i].equals("-t")) {
+				i++;
+				if (i < args.length) indexer.setNumThreads(Integer.parseInt(args[i]));
+			} else if (args[i].equals("-m")) {
+				i++;
+				if (i < args.length) indexer.setMemoryBudget(Long.parseLong(args[i]) * 1024 * 1024);
+			} else if (args[i].equals("-f")) {
+				i++;
+				if (i < args.length) indexer.setMergeFactor(Integer.parseInt(args[i]));
+			} else if (args[i].equals("-r")) {
+				i++;
+				if (i < args.length) indexer.setSegmentMergeRate(Long.parseLong(args[i]) * 1024 * 1024);
+			} else if (args[i].equals("-c")) {
+				i++;
+				if (i < args.length) indexer.setPostingsCodec(args[i]);
+			} else if (args[i].equals("-k")) {
+				i++;
+				if (i < args.length) indexer.setPostingsCacheSize(Long.parseLong(args[i]) * 1024 * 1024);
+			} else if (args[i].equals("-s")) {
+				i++;
 			} else {
 				System.err.println("Unknown option: " + args[i]);
 			}
@@ -416,6 +469,7 @@ public class SearchGUI extends JFrame {
 			System.out.println("Calculating pagerank with file " + pagerankLinksFile);
 			System.out.println("TODO: this fix this here");
 			new PageRank(pagerankLinksFile, articleNames).pagerank(indexer.index.pagerankScores);
+			indexer.index.documents.setPageranks(indexer.index.pagerankScores);
 		}
 		
 		s.index();
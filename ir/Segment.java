@@ -0,0 +1,260 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *   An immutable part of the disk index holding the documents of one 
+ *   indexing batch. Segments cover consecutive docID ranges, so reading 
+ *   the postings of a term from the segments in order gives them in docID order.
+ */
+public class Segment {
+	public static final String INDEX_FILENAME = "full-index";
+	public static final String POSITIONS_FILENAME = "positions";
+	public static final String DICTIONARY_FILENAME = "term-dictionary";
+	public static final String DOCUMENTS_FILENAME = "documents";
+	public static final String DELETED_DOCS_FILENAME = "deleted-docs";
+	public static final String TERM_VECTORS_FILENAME = "term-vectors";
+	public static final String TERM_VECTOR_INDEX_FILENAME = "term-vector-index";
+
+	public final String name;
+	public final String dir;
+	public final int firstDocID;
+	public final int endDocID; // exclusive
+
+	private volatile TermDictionary dictionary = null;
+	private volatile MappedFile indexFile = null;
+	private volatile MappedFile positionsFile = null;
+
+	// read on the first lookup of a term vector
+	private long[] vectorPositions = null;
+	private int[] vectorLengths = null;
+
+	public Segment(String name, String dir, int firstDocID, int endDocID) {
+		this.name = name;
+		this.dir = dir;
+		this.firstDocID = firstDocID;
+		this.endDocID = endDocID;
+	}
+
+	// opens the term dictionary of an existing segment, only its block index is read into memory
+	public static Segment read(String name, String dir, int firstDocID, int endDocID) throws IOException {
+		Segment segment = new Segment(name, dir, firstDocID, endDocID);
+		segment.getDictionary();
+		return segment;
+	}
+
+	public boolean exists() {
+		return new File(dir + INDEX_FILENAME).exists() && 
+			new File(dir + POSITIONS_FILENAME).exists() &&
+			new File(dir + DICTIONARY_FILENAME).exists() &&
+			new File(dir + DOCUMENTS_FILENAME).exists();
+	}
+
+	public int numDocs() {
+		return endDocID - firstDocID;
+	}
+
+	public boolean contains(int docID) {
+		return docID >= firstDocID && docID < endDocID;
+	}
+
+	public long sizeInBytes() {
+		return new File(dir + INDEX_FILENAME).length() + new File(dir + POSITIONS_FILENAME).length();
+	}
+
+	public PostingsList getPostings(String token) {
+		TermPostings tp = readPostings(token);
+		return tp == null ? null : toPostingsList(tp);
+	}
+
+	// decodes all postings of the term, or returns null if the segment does not have it
+	public TermPostings readPostings(String token) {
+		try {
+			TermDictionary.TermIterator ti = getDictionary().find(token);
+			if (ti == null) return null;
+
+			TermPostings tp = new TermPostings();
+			tp.read(getIndexFile(), ti.postingsPosition(), getPositionsFile(), getCodec());
+			return tp;
+
+		} catch (IOException e) {
+			System.err.println("Error reading index file of " + name);
+			return null;
+		}
+	}
+
+	public PostingsCursor getCursor(String token) {
+		try {
+			TermDictionary.TermIterator ti = getDictionary().find(token);
+			if (ti == null) return null;
+
+			return new SegmentCursor(getIndexFile(), getPositionsFile(), getCodec(), ti.postingsPosition());
+
+		} catch (IOException e) {
+			System.err.println("Error reading index file of " + name);
+			return null;
+		}
+	}
+
+	// the dictionary and the index files are mapped on the first lookup and stay mapped 
+	// while the segment is used
+	TermDictionary getDictionary() throws IOException {
+		TermDictionary d = dictionary;
+		if (d == null) {
+			synchronized (this) {
+				if (dictionary == null) dictionary = new TermDictionary(dir + DICTIONARY_FILENAME);
+				d = dictionary;
+			}
+		}
+
+		return d;
+	}
+
+	MappedFile getIndexFile() throws IOException {
+		MappedFile f = indexFile;
+		if (f == null) {
+			synchronized (this) {
+				if (indexFile == null) indexFile = new MappedFile(dir + INDEX_FILENAME);
+				f = indexFile;
+			}
+		}
+
+		return f;
+	}
+
+	MappedFile getPositionsFile() throws IOException {
+		MappedFile f = positionsFile;
+		if (f == null) {
+			synchronized (this) {
+				if (positionsFile == null) positionsFile = new MappedFile(dir + POSITIONS_FILENAME);
+				f = positionsFile;
+			}
+		}
+
+		return f;
+	}
+
+	// the codec of the index file is given by its first byte
+	IntCodec getCodec() throws IOException {
+		return IntCodec.forID(getIndexFile().get(0));
+	}
+
+	public static PostingsList toPostingsList(TermPostings tp) {
+		return new PostingsList(tp.docIDs, tp.offsetStarts, tp.offsets, tp.numDocs);
+	}
+
+	// returns the encoded term vector of the document with a single read of the vectors file, 
+	// or null if the segment has no term vectors
+	public byte[] readTermVector(int docID) throws IOException {
+		if (!readTermVectorIndex()) return null;
+
+		RandomAccessFile vectorsFile = new RandomAccessFile(dir + TERM_VECTORS_FILENAME, "r");
+		try {
+			return readTermVector(vectorsFile, docID);
+		} finally {
+			vectorsFile.close();
+		}
+	}
+
+	private byte[] readTermVector(RandomAccessFile vectorsFile, int docID) throws IOException {
+		int i = docID - firstDocID;
+		byte[] vector = new byte[vectorLengths[i]];
+		vectorsFile.seek(vectorPositions[i]);
+		vectorsFile.readFully(vector);
+		return vector;
+	}
+
+	private synchronized boolean readTermVectorIndex() throws IOException {
+		if (vectorPositions != null) return true;
+
+		// segments written before term vectors were added do not have them
+		File f = new File(dir + TERM_VECTOR_INDEX_FILENAME);
+		if (!f.exists()) return false;
+
+		long[] positions = new long[numDocs()];
+		int[] lengths = new int[numDocs()];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = in.readLong();
+			lengths[i] = in.readInt();
+		}
+
+		in.close();
+		vectorLengths = lengths;
+		vectorPositions = positions;
+		return true;
+	}
+
+	// reads the paths, lengths and modification times of the segment's documents that are 
+	// not deleted into the index
+	public void readDocuments(Index index, BitSet deletedDocs) throws IOException {
+		index.documents.read(dir + DOCUMENTS_FILENAME, firstDocID, endDocID, deletedDocs);
+	}
+
+	// NOTE: file structure is the words of a bitset over the docIDs of the segment, 
+	// counted from firstDocID, written as longs
+	public void readDeletedDocs(BitSet deletedDocs) throws IOException {
+		File f = new File(dir + DELETED_DOCS_FILENAME);
+		if (!f.exists()) return;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+		long[] words = new long[(int) (f.length() / 8)];
+		for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+		in.close();
+
+		BitSet local = BitSet.valueOf(words);
+		for (int i = local.nextSetBit(0); i >= 0; i = local.nextSetBit(i + 1)) deletedDocs.set(firstDocID + i);
+	}
+
+	// saves the deletions within the segment's docID range, the file is replaced with a rename
+	public void writeDeletedDocs(BitSet deletedDocs) throws IOException {
+		BitSet local = deletedDocs.get(firstDocID, endDocID);
+		if (local.isEmpty() && !new File(dir + DELETED_DOCS_FILENAME).exists()) return;
+
+		File tmp = new File(dir + DELETED_DOCS_FILENAME + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		for (long word : local.toLongArray()) out.writeLong(word);
+		out.close();
+
+		if (!tmp.renameTo(new File(dir + DELETED_DOCS_FILENAME))) throw new IOException("Failed to replace deleted docs of " + name);
+	}
+
+	// saves the paths, lengths and modification times of the segment's documents, which are every 
+	// docIDStride:th docID of its range since the shards share the docIDs. The term dictionary 
+	// is written with the index file
+	public void write(Index index, int docIDStride) throws IOException {
+		index.documents.write(dir + DOCUMENTS_FILENAME, firstDocID, endDocID, docIDStride);
+	}
+
+	// saves the documents of the index in the segment's docID range, which are those of the segments 
+	// this one was merged from that are not deleted, and takes the term vectors of the sources
+	public void write(List<Segment> sources, Index index, BitSet deletedDocs, int docIDStride) throws IOException {
+		write(index, docIDStride);
+		concatenateTermVectors(sources, deletedDocs);
+	}
+
+	private void concatenateTermVectors(List<Segment> sources, BitSet deletedDocs) throws IOException {
+		TermVectorWriter tvw = new TermVectorWriter(dir + TERM_VECTORS_FILENAME, dir + TERM_VECTOR_INDEX_FILENAME, firstDocID);
+		for (Segment source : sources) {
+			if (!source.readTermVectorIndex()) continue;
+
+			RandomAccessFile vectorsFile = new RandomAccessFile(source.dir + TERM_VECTORS_FILENAME, "r");
+			for (int docID = source.firstDocID; docID < source.endDocID; docID++) 
+				if (!deletedDocs.get(docID)) tvw.add(docID, source.readTermVector(vectorsFile, docID));
+
+			vectorsFile.close();
+		}
+
+		tvw.close(endDocID);
+	}
+
+	// removes the segment's files, it must not be in use anymore. A mapped index file
+	// stays readable until the map is garbage collected
+	public void delete() {
+		File d = new File(dir);
+		File[] files = d.listFiles();
+		if (files != null) for (File f : files) f.delete();
+		d.delete();
+	}
+}
@@ -0,0 +1,155 @@
+package ir;
+
+/**
+ *   A cursor over the postings of one term in the mapped index files of a
+ *   segment. Blocks are decoded one at a time, advance binary searches the skip
+ *   table after the current block for the block that can hold the target, and the
+ *   positions of a block are only read from the positions file when they are asked
+ *   for. The entries of the skip table are read from the map when they are needed,
+ *   so a cursor over a long postings list costs nothing up front.
+ *   See IndexWriter for the format.
+ */
+public class SegmentCursor implements PostingsCursor {
+	private static final int BLOCK_SIZE = IndexWriter.BLOCK_SIZE;
+
+	private final MappedFile file;
+	private final MappedFile positionsFile;
+	private final IntCodec codec;
+	private final int numDocs;
+	private final int numBlocks;
+	private final long blocksStart;
+	private final long positionsStart;
+	private final long skipStart;
+
+	private int block = -1;
+	private int blockLastDocID; // the last docID of the current block
+	private int blockDocs = 0;
+	private int i = 0; // within the block
+	private int docID = -1;
+	private final int[] docIDs = new int[BLOCK_SIZE];
+	private final int[] numOffsets = new int[BLOCK_SIZE];
+	private final int[] offsetStarts = new int[BLOCK_SIZE + 1];
+	private int[] offsets = new int[1024];
+	private boolean offsetsDecoded;
+	private int positionDoc = -1; // the document the positions have been read from
+	private int positionIndex;
+	private int position;
+
+	public SegmentCursor(MappedFile file, MappedFile positionsFile, IntCodec codec, long position) {
+		this.file = file;
+		this.positionsFile = positionsFile;
+		this.codec = codec;
+		MappedInput in = new MappedInput(file, position);
+		numDocs = in.readVByte();
+		positionsStart = in.readVLong();
+		blocksStart = position - in.readVLong();
+		numBlocks = (numDocs + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		skipStart = in.position();
+	}
+
+	// a single block has no skip table
+	private int lastDocID(int b) {
+		return numBlocks == 1 ? NO_MORE_DOCS : file.getInt(skipStart + b * IndexWriter.SKIP_ENTRY_SIZE);
+	}
+
+	// a block starts where the one before it ends, the ends are counted from the start of the term
+	private long blockStart(int b) {
+		return b == 0 ? blocksStart : blocksStart + file.getInt(skipStart + (b - 1) * IndexWriter.SKIP_ENTRY_SIZE + 4);
+	}
+
+	private long positionsStart(int b) {
+		return b == 0 ? positionsStart : positionsStart + file.getInt(skipStart + (b - 1) * IndexWriter.SKIP_ENTRY_SIZE + 8);
+	}
+
+	public int nextDoc() {
+		if (++i < blockDocs) return docID = docIDs[i];
+		if (block + 1 >= numBlocks) return docID = NO_MORE_DOCS;
+
+		readBlock(block + 1);
+		return docID = docIDs[i];
+	}
+
+	public int advance(int target) {
+		if (docID >= target) return docID;
+
+		if (block < 0 || target > blockLastDocID) {
+			// the first block after the current one whose last docID is at least the target
+			int low = block + 1;
+			int high = numBlocks - 1;
+			if (lastDocID(high) < target) {
+				block = numBlocks;
+				blockDocs = 0;
+				return docID = NO_MORE_DOCS;
+			}
+
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (lastDocID(mid) < target) low = mid + 1;
+				else high = mid;
+			}
+
+			readBlock(low);
+		}
+
+		while (docIDs[i] < target) {
+			if (++i == blockDocs) return nextDoc();
+		}
+
+		return docID = docIDs[i];
+	}
+
+	public int docID() {
+		return docID;
+	}
+
+	public int freq() {
+		return numOffsets[i];
+	}
+
+	// the offsets are stored as gaps from the previous one in the document
+	public int nextPosition() {
+		if (!offsetsDecoded) decodeOffsets();
+		if (positionDoc != docID) {
+			positionDoc = docID;
+			positionIndex = offsetStarts[i];
+			position = 0;
+		}
+
+		return position += offsets[positionIndex++];
+	}
+
+	public int docFrequency() {
+		return numDocs;
+	}
+
+	private void readBlock(int b) {
+		block = b;
+		blockDocs = Math.min(BLOCK_SIZE, numDocs - b * BLOCK_SIZE);
+		blockLastDocID = lastDocID(b);
+		MappedInput in = new MappedInput(file, blockStart(b));
+		codec.decode(in, docIDs, 0, blockDocs);
+		codec.decode(in, numOffsets, 0, blockDocs);
+
+		int lastDocID = b == 0 ? 0 : lastDocID(b - 1);
+		for (int j = 0; j < blockDocs; j++) {
+			lastDocID += docIDs[j];
+			docIDs[j] = lastDocID;
+		}
+
+		offsetsDecoded = false;
+		i = 0;
+	}
+
+	private void decodeOffsets() {
+		int total = 0;
+		for (int j = 0; j < blockDocs; j++) {
+			offsetStarts[j] = total;
+			total += numOffsets[j];
+		}
+
+		offsetStarts[blockDocs] = total;
+		if (offsets.length < total) offsets = new int[Math.max(total, 2 * offsets.length)];
+		codec.decode(new MappedInput(positionsFile, positionsStart(block)), offsets, 0, total);
+		offsetsDecoded = true;
+	}
+}
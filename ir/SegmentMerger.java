@@ -0,0 +1,146 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *   Merges segments in the background. Segments are put in tiers by the 
+ *   size of their index file, where every tier holds segments SEGMENTS_PER_TIER
+ *   times larger than the one below. When SEGMENTS_PER_TIER adjacent segments
+ *   are in the same tier, or in two neighbouring tiers so that a small segment 
+ *   between larger ones does not block them, they are merged into one segment.
+ *   Only adjacent segments are merged so that the docID ranges stay consecutive.
+ */
+public class SegmentMerger {
+	private static final int SEGMENTS_PER_TIER = 10;
+	private static final long FLOOR_SEGMENT_SIZE = 1 << 20; // bytes, smaller segments are all in the lowest tier
+
+	private final Indexer indexer;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "segment-merger");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+	private volatile long bytesPerSecond = 0;
+
+	private final Runnable mergeTask = new Runnable() {
+		public void run() {
+			scheduled.set(false);
+
+			List<Segment> run;
+			while ((run = findMerge(indexer.segments)) != null) {
+				try {
+					merge(run);
+				} catch (IOException e) {
+					System.err.println("Failed to merge segments: " + e.getMessage());
+					return;
+				}
+			}
+		}
+	};
+
+	public SegmentMerger(Indexer indexer) {
+		this.indexer = indexer;
+	}
+
+	// limits the bytes read plus written per second by a merge, 0 means no limit
+	public void setRate(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	// starts merging in the background if it is not already going to
+	public void maybeMerge() {
+		if (scheduled.compareAndSet(false, true)) executor.execute(mergeTask);
+	}
+
+	// blocks until the merges that have been started are done
+	public void waitForMerges() {
+		try {
+			executor.submit(new Runnable() {
+				public void run() {
+				}
+			}).get();
+
+		} catch (Exception e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int tier(Segment segment) {
+		int tier = 0;
+		for (long size = segment.sizeInBytes(); size > FLOOR_SEGMENT_SIZE; size /= SEGMENTS_PER_TIER) tier++;
+		return tier;
+	}
+
+	// returns the run of SEGMENTS_PER_TIER adjacent segments at most one tier apart
+	// with the lowest top tier, or null if there is none
+	private List<Segment> findMerge(List<Segment> segments) {
+		int[] tiers = new int[segments.size()];
+		for (int i = 0; i < tiers.length; i++) tiers[i] = tier(segments.get(i));
+
+		int best = -1;
+		int bestTier = Integer.MAX_VALUE;
+		for (int i = 0; i + SEGMENTS_PER_TIER <= tiers.length; i++) {
+			int min = Integer.MAX_VALUE;
+			int max = 0;
+			for (int j = i; j < i + SEGMENTS_PER_TIER; j++) {
+				min = Math.min(min, tiers[j]);
+				max = Math.max(max, tiers[j]);
+			}
+
+			if (max - min <= 1 && max < bestTier) {
+				best = i;
+				bestTier = max;
+			}
+		}
+
+		return best < 0 ? null : new ArrayList<Segment>(segments.subList(best, best + SEGMENTS_PER_TIER));
+	}
+
+	private void merge(List<Segment> run) throws IOException {
+		long start = System.currentTimeMillis();
+		RateLimiter limiter = new RateLimiter(bytesPerSecond);
+		String name = indexer.newSegmentName();
+		String dir = indexer.getSegmentDirectory(name);
+		new File(dir).mkdir();
+
+		// documents deleted from now on are marked in the merged segment instead
+		BitSet deletedDocs;
+		indexer.segmentsLock.readLock().lock();
+		try {
+			deletedDocs = (BitSet) indexer.deletedDocs.clone();
+		} finally {
+			indexer.segmentsLock.readLock().unlock();
+		}
+
+		Segment merged = null;
+		try {
+			List<SegmentReader> readers = new ArrayList<SegmentReader>(run.size());
+			for (Segment segment : run) readers.add(new SegmentReader(segment, deletedDocs, limiter));
+
+			IndexWriter iw = new IndexWriter(dir + Segment.INDEX_FILENAME, dir + Segment.POSITIONS_FILENAME, 
+					dir + Segment.DICTIONARY_FILENAME, indexer.getPostingsCodec(), limiter);
+			new PartitionMerger().mergeReaders(readers, iw);
+			iw.close();
+
+			merged = new Segment(name, dir, run.get(0).firstDocID, run.get(run.size() - 1).endDocID);
+			merged.write(run, indexer.index, deletedDocs, indexer.getDocIDStride());
+
+		} catch (IOException e) {
+			new Segment(name, dir, 0, 0).delete();
+			throw e;
+		}
+
+		indexer.replaceSegments(run, merged);
+
+		long time = System.currentTimeMillis() - start;
+		System.out.println("Merged " + run.size() + " segments into " + name + " (" + 
+				(merged.sizeInBytes() >> 20) + " MB) in " + time + " ms");
+	}
+}
@@ -0,0 +1,78 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *   Reads the full-index of a segment from start to end as sorted postings,
+ *   so that segments can be merged with PartitionMerger. The postings of
+ *   deleted documents are skipped, which removes them from the merged segment.
+ */
+public class SegmentReader implements PostingsReader {
+	private final MappedFile file;
+	private final MappedFile positionsFile;
+	private final IntCodec codec;
+	private final RateLimiter limiter;
+	private final TermDictionary.TermIterator terms; // in file order
+	private final BitSet deletedDocs;
+	private final TermPostings postings = new TermPostings();
+	private int docNumber = 0; // within the current term
+
+	private int[] offsets = new int[64];
+	private int numOffsets = 0;
+
+	// the bytes of every term in both files are counted by the limiter if there is one
+	public SegmentReader(Segment segment, BitSet deletedDocs, RateLimiter limiter) throws IOException {
+		this.deletedDocs = deletedDocs;
+		this.limiter = limiter;
+		file = segment.getIndexFile();
+		positionsFile = segment.getPositionsFile();
+		codec = segment.getCodec();
+		terms = segment.getDictionary().iterator();
+	}
+
+	public boolean nextTerm() throws IOException {
+		if (!terms.next()) return false;
+
+		postings.read(file, terms.postingsPosition(), positionsFile, codec);
+		if (limiter != null) limiter.acquire((int) (postings.indexLength + postings.positionsLength));
+
+		docNumber = -1;
+		return true;
+	}
+
+	public boolean nextDoc() throws IOException {
+		do {
+			if (++docNumber >= postings.numDocs) return false;
+		} while (deletedDocs.get(postings.docIDs[docNumber]));
+
+		int start = postings.offsetStarts[docNumber];
+		numOffsets = postings.offsetStarts[docNumber + 1] - start;
+		if (offsets.length < numOffsets) offsets = new int[Math.max(numOffsets, 2 * offsets.length)];
+		System.arraycopy(postings.offsets, start, offsets, 0, numOffsets);
+		return true;
+	}
+
+	public byte[] term() {
+		return terms.term();
+	}
+
+	public int termLength() {
+		return terms.termLength();
+	}
+
+	public int docID() {
+		return postings.docIDs[docNumber];
+	}
+
+	public int[] offsets() {
+		return offsets;
+	}
+
+	public int numOffsets() {
+		return numOffsets;
+	}
+
+	public void close() throws IOException {
+	}
+}
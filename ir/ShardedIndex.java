@@ -0,0 +1,186 @@
+package ir;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *   An index split by document into shards, each a disk index of its own. A search
+ *   is run on all shards in parallel and their results are merged. The shards score
+ *   with the document frequencies of the whole index, and the number of documents is
+ *   that of the shared document store, so the scores are the same as if the index
+ *   was not split. The docID of a document tells its shard, see Indexer.
+ */
+public class ShardedIndex implements Index {
+	private final List<Indexer> shards;
+	private final ExecutorService searchers;
+
+	public ShardedIndex(List<Indexer> shards) {
+		this.shards = shards;
+
+		searchers = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "shard-searcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	// the indexers of the shards, shard i has the docIDs that are i modulo the number of shards
+	List<Indexer> getShards() {
+		return shards;
+	}
+
+	private Index shardOf(int docID) {
+		return shards.get(docID % shards.size()).index;
+	}
+
+	public void insert(String token, int docID, int offset) {
+		throw new UnsupportedOperationException("Documents are inserted into the shards");
+	}
+
+	// the terms of all shards in sorted order, merged from their dictionaries as they are iterated
+	public Iterator<String> getDictionary() {
+		final List<Iterator<String>> dictionaries = new ArrayList<Iterator<String>>();
+		final String[] terms = new String[shards.size()]; // the next term of every dictionary, null at the end
+		for (int i = 0; i < shards.size(); i++) {
+			dictionaries.add(shards.get(i).index.getDictionary());
+			terms[i] = dictionaries.get(i).hasNext() ? dictionaries.get(i).next() : null;
+		}
+
+		return new Iterator<String>() {
+			public boolean hasNext() {
+				for (String term : terms) if (term != null) return true;
+				return false;
+			}
+
+			public String next() {
+				String smallest = null;
+				for (String term : terms)
+					if (term != null && (smallest == null || term.compareTo(smallest) < 0)) smallest = term;
+				if (smallest == null) throw new NoSuchElementException();
+
+				// the same term can be in several shards
+				for (int i = 0; i < terms.length; i++) {
+					if (!smallest.equals(terms[i])) continue;
+					terms[i] = dictionaries.get(i).hasNext() ? dictionaries.get(i).next() : null;
+				}
+
+				return smallest;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public PostingsList getPostings(String token) {
+		List<PostingsList> lists = new ArrayList<PostingsList>();
+		for (Indexer shard : shards) lists.add(shard.index.getPostings(token));
+		return merge(lists, false);
+	}
+
+	public PostingsCursor getCursor(String token) {
+		List<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+		for (Indexer shard : shards) {
+			PostingsCursor cursor = shard.index.getCursor(token);
+			if (cursor != null) cursors.add(cursor);
+		}
+
+		if (cursors.isEmpty()) return null;
+		return cursors.size() == 1 ? cursors.get(0) : new UnionCursor(cursors);
+	}
+
+	public int docFrequency(String token) {
+		int df = 0;
+		for (Indexer shard : shards) df += shard.index.docFrequency(token);
+		return df;
+	}
+
+	public double getPagerank(int docID) {
+		return shardOf(docID).getPagerank(docID);
+	}
+
+	public PostingsList search(Query query, int queryType, int rankingType, int structureType) {
+		return search(query, queryType, rankingType, structureType, Integer.MAX_VALUE);
+	}
+
+	// every shard ranks its own documents and returns its top k, the ranked lists are
+	// merged on score and the others on docID, and the first k of the merge are kept
+	// NOTE: the document frequencies of the whole index are looked up before the shards
+	// are searched and go with the query, since a shard holds its segments locked while
+	// it searches and must not wait for the locks of the other shards then
+	public PostingsList search(Query query, final int queryType, final int rankingType, final int structureType, final int k) {
+		final Query shardQuery = query.copy();
+		if (queryType == Index.RANKED_QUERY) {
+			shardQuery.docFrequencies = new HashMap<String, Integer>();
+			for (String term : query.terms) shardQuery.docFrequencies.put(term, docFrequency(term));
+		}
+
+		List<Future<PostingsList>> futures = new ArrayList<Future<PostingsList>>();
+		for (final Indexer shard : shards) {
+			futures.add(searchers.submit(new Callable<PostingsList>() {
+				public PostingsList call() {
+					return shard.index.search(shardQuery, queryType, rankingType, structureType, k);
+				}
+			}));
+		}
+
+		List<PostingsList> results = new ArrayList<PostingsList>();
+		try {
+			for (Future<PostingsList> f : futures) results.add(f.get());
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			System.err.println("Search of a shard failed: " + e.getCause());
+			return null;
+		}
+
+		int totalHits = 0;
+		for (PostingsList pl : results) 
+			if (pl != null) totalHits += pl.getTotalHits();
+
+		PostingsList result = merge(results, queryType == Index.RANKED_QUERY);
+		if (result != null) {
+			result.truncate(k);
+			result.setTotalHits(totalHits);
+		}
+
+		return result;
+	}
+
+	// merges lists sorted on docID, or on score with ties in docID order like the results
+	// of a single index. Null if all of them are
+	private static PostingsList merge(List<PostingsList> lists, boolean onScore) {
+		PostingsList result = null;
+		for (PostingsList pl : lists) {
+			if (pl == null) continue;
+
+			if (result == null) result = new PostingsList();
+			result.addAll(pl);
+		}
+
+		// NOTE: the sorts are stable and merge the sorted runs of the shards
+		if (result != null && lists.size() > 1) {
+			result.sortOnDocID();
+			if (onScore) result.sortOnScore();
+		}
+
+		return result;
+	}
+
+	public void delete(int docID) {
+		shardOf(docID).delete(docID);
+	}
+
+	public boolean isDeleted(int docID) {
+		return shardOf(docID).isDeleted(docID);
+	}
+
+	public void cleanup() {
+		for (Indexer shard : shards) shard.index.cleanup();
+	}
+}
@@ -0,0 +1,173 @@
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *   Indexes the documents into shards, independent disk indexes in directories of their
+ *   own, which can be on different disks. A document goes to the shard given by the hash
+ *   of its path, so a changed file is updated in the shard that has it. The shards split
+ *   the memory budget, the postings cache and the indexing threads between them, and
+ *   this indexer only walks the files and hands out the work.
+ */
+public class ShardedIndexer extends Indexer {
+	private final List<Indexer> shards;
+
+	public ShardedIndexer(List<String> roots) {
+		this(new ShardedIndex(createShards(roots)));
+	}
+
+	// every shard starts with the budgets of a whole index, they are split here
+	private ShardedIndexer(ShardedIndex index) {
+		super(index);
+		shards = index.getShards();
+		setMemoryBudget(getMemoryBudget());
+		setPostingsCacheSize(shards.get(0).getPostingsCache().getBudget());
+	}
+
+	private static List<Indexer> createShards(List<String> roots) {
+		if (roots.isEmpty()) throw new IllegalArgumentException("Need at least one shard");
+
+		List<Indexer> shards = new ArrayList<Indexer>();
+		for (int i = 0; i < roots.size(); i++) shards.add(new Indexer(roots.get(i), i, roots.size()));
+		return shards;
+	}
+
+	private Indexer shardOf(String path) {
+		return shards.get((path.hashCode() & Integer.MAX_VALUE) % shards.size());
+	}
+
+	@Override
+	public void setNumThreads(int numThreads) {
+		if (numThreads < 1) throw new IllegalArgumentException("Need at least one indexing thread");
+		for (Indexer shard : shards) shard.setNumThreads(Math.max(1, numThreads / shards.size()));
+	}
+
+	@Override
+	public void setMemoryBudget(long bytes) {
+		if (bytes < SpimiBuffer.MIN_BUDGET) throw new IllegalArgumentException("Memory budget has to be at least " + SpimiBuffer.MIN_BUDGET + " bytes");
+		for (Indexer shard : shards) shard.setMemoryBudget(Math.max(SpimiBuffer.MIN_BUDGET, bytes / shards.size()));
+	}
+
+	@Override
+	public void setMergeFactor(int mergeFactor) {
+		for (Indexer shard : shards) shard.setMergeFactor(mergeFactor);
+	}
+
+	@Override
+	public void setPostingsCodec(String name) {
+		for (Indexer shard : shards) shard.setPostingsCodec(name);
+	}
+
+	// every shard merges its own segments, on its own disk
+	@Override
+	public void setSegmentMergeRate(long bytesPerSecond) {
+		for (Indexer shard : shards) shard.setSegmentMergeRate(bytesPerSecond);
+	}
+
+	@Override
+	public void setPostingsCacheSize(long bytes) {
+		if (bytes < 0) throw new IllegalArgumentException("Cache size can not be negative");
+		for (Indexer shard : shards) shard.setPostingsCacheSize(bytes / shards.size());
+	}
+
+	// every shard has a cache of its own, the counts of the caches are summed instead
+	@Override
+	public PostingsCache getPostingsCache() {
+		throw new UnsupportedOperationException("The postings caches are in the shards");
+	}
+
+	@Override
+	public long getCacheHits() {
+		long hits = 0;
+		for (Indexer shard : shards) hits += shard.getCacheHits();
+		return hits;
+	}
+
+	@Override
+	public long getCacheMisses() {
+		long misses = 0;
+		for (Indexer shard : shards) misses += shard.getCacheMisses();
+		return misses;
+	}
+
+	@Override
+	public long getCacheEvictions() {
+		long evictions = 0;
+		for (Indexer shard : shards) evictions += shard.getCacheEvictions();
+		return evictions;
+	}
+
+	@Override
+	public void waitForSegmentMerges() {
+		for (Indexer shard : shards) shard.waitForSegmentMerges();
+	}
+
+	@Override
+	public void processFiles(File f) {
+		// do not try to index fs that cannot be read
+		if (!f.canRead()) return;
+
+		if (f.isDirectory()) {
+			String[] fs = f.list();
+			// an IO error could occur
+			if (fs != null) {
+				for (int i = 0; i < fs.length; i++) processFiles(new File(f, fs[i]));
+			}
+
+		} else shardOf(f.getPath()).processFiles(f);
+	}
+
+	@Override
+	public void deleteDocument(String path) {
+		shardOf(path).deleteDocument(path);
+	}
+
+	@Override
+	public void deleteMissingDocuments() {
+		for (Indexer shard : shards) shard.deleteMissingDocuments();
+	}
+
+	@Override
+	public Map<String, Integer> getTermsInDoc(int docID) {
+		return shards.get(docID % shards.size()).getTermsInDoc(docID);
+	}
+
+	@Override
+	public boolean indexExists() {
+		for (Indexer shard : shards)
+			if (!shard.indexExists()) return false;
+
+		return true;
+	}
+
+	// NOTE: the shards are read one at a time since they add to the same document store
+	// and pagerank scores
+	@Override
+	public void readExistingIndex() {
+		for (Indexer shard : shards) shard.readExistingIndex();
+	}
+
+	// the segments of the shards are written at the same time
+	@Override
+	public void finishIndex() {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final Indexer shard : shards) {
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					shard.finishIndex();
+				}
+			}, "shard-indexer");
+			t.start();
+			threads.add(t);
+		}
+
+		try {
+			for (Thread t : threads) t.join();
+
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted while waiting for the shards to be written");
+			System.exit(1);
+		}
+	}
+}
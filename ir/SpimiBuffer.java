@@ -0,0 +1,67 @@
+package ir;
+
+import java.io.*;
+
+/**
+ *   The in-memory block of the SPIMI algorithm. Tokens are collected 
+ *   here until the heap use of the block reaches its budget and
+ *   then written to a sorted partition file.
+ *   Every indexing thread owns its own buffer.
+ */
+public class SpimiBuffer {
+	public static final long MIN_BUDGET = 4L * ByteBlockPool.BLOCK_SIZE; // bytes
+
+	// the bytes of a buffer as soon as it has a token, the arrays it starts with and the
+	// first block of the pool, which are not counted against the budget
+	private static final long BASE_SIZE = new PostingsBuffer().sizeInBytes() + ByteBlockPool.BLOCK_SIZE;
+
+	private final Indexer indexer;
+	private final long budget; // bytes
+	private PostingsBuffer tempIndex = new PostingsBuffer();
+
+	public SpimiBuffer(Indexer indexer, long budget) {
+		if (budget < MIN_BUDGET) throw new IllegalArgumentException("The budget of a spimi buffer has to be at least " + MIN_BUDGET + " bytes");
+		this.indexer = indexer;
+		this.budget = budget;
+	}
+
+	public long estimatedBytes() {
+		return tempIndex.sizeInBytes();
+	}
+
+	// NOTE: the postings are bytes in the blocks of the buffer, so its size is counted
+	// instead of estimated, and a token does not create any objects
+	public void insert(int docID, String token, int offset) {
+		tempIndex.add(token, docID, offset);
+		if (tempIndex.sizeInBytes() - BASE_SIZE >= budget) flush();
+	}
+
+	// writes the contents of the buffer to a new partition and empties it
+	public void flush() {
+		if (tempIndex.size() == 0) return;
+
+		long start = System.currentTimeMillis();
+		String partitionFile = writePartition(indexer.newPartitionFilename());
+		long time = System.currentTimeMillis() - start;
+
+		indexer.addPartitionFile(partitionFile);
+		indexer.flushStatistics.record(tempIndex.sizeInBytes(), new File(partitionFile).length(), time);
+		tempIndex = new PostingsBuffer();
+	}
+
+	// NOTE: see PartitionWriter for the file structure
+	private String writePartition(String fileName) {
+		try {
+			PartitionWriter pw = new PartitionWriter(fileName);
+			tempIndex.write(pw);
+			pw.close();
+
+		} catch (Exception e) {
+			//e.printStackTrace();
+			System.err.println("Failed during partition writing");
+			System.exit(1);
+		}
+
+		return fileName;
+	}
+}
@@ -0,0 +1,155 @@
+package ir;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ *   The sorted term dictionary of a segment, read from a mapped file. Only the
+ *   start of every block of terms is held in memory, so a lookup does a binary
+ *   search on the first terms of the blocks and then scans a single block.
+ *   A term is numbered by its place in sorted order, which is also the order
+ *   of the postings in the index file. See TermDictionaryWriter for the format.
+ */
+public class TermDictionary {
+	private static final int BLOCK_SIZE = TermDictionaryWriter.BLOCK_SIZE;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedFile file;
+	private final int numTerms;
+	private final long[] blockStarts;
+
+	public TermDictionary(String fileName) throws IOException {
+		file = new MappedFile(fileName);
+		if (file.length() < 12) throw new IOException("Broken term dictionary " + fileName);
+
+		MappedInput in = new MappedInput(file, file.length() - 12);
+		numTerms = in.readInt();
+		long blockIndexStart = in.readLong();
+
+		blockStarts = new long[(numTerms + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		in = new MappedInput(file, blockIndexStart);
+		long start = 0;
+		for (int b = 0; b < blockStarts.length; b++) {
+			start += in.readVLong();
+			blockStarts[b] = start;
+		}
+	}
+
+	public int size() {
+		return numTerms;
+	}
+
+	// all terms in sorted order
+	public TermIterator iterator() {
+		return new TermIterator(0);
+	}
+
+	// returns an iterator positioned on the term, or null if the dictionary does not have it
+	public TermIterator find(String term) {
+		if (numTerms == 0) return null;
+		byte[] t = term.getBytes(UTF8);
+
+		// the last block whose first term is not larger than the term
+		int lo = 0;
+		int hi = blockStarts.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (compareFirstTerm(mid, t) <= 0) lo = mid;
+			else hi = mid - 1;
+		}
+
+		TermIterator it = new TermIterator(lo);
+		for (int i = 0; i < BLOCK_SIZE && it.next(); i++) {
+			int c = PartitionReader.compareTerms(it.term, it.termLength, t, t.length);
+			if (c == 0) return it;
+			if (c > 0) break;
+		}
+
+		return null;
+	}
+
+	// returns an iterator positioned on the term with the given number
+	public TermIterator get(int termID) {
+		if (termID < 0 || termID >= numTerms) throw new IndexOutOfBoundsException("No term " + termID);
+
+		TermIterator it = new TermIterator(termID / BLOCK_SIZE);
+		for (int i = 0; i <= termID % BLOCK_SIZE; i++) it.next();
+		return it;
+	}
+
+	// compares the first term of the block with the term without decoding it into an array
+	private int compareFirstTerm(int block, byte[] t) {
+		MappedInput in = new MappedInput(file, blockStarts[block]);
+		in.readVByte(); // the prefix of a first term is 0
+		int length = in.readVByte();
+		int n = Math.min(length, t.length);
+		for (int i = 0; i < n; i++) {
+			int c = (in.readByte() & 0xFF) - (t[i] & 0xFF);
+			if (c != 0) return c;
+		}
+
+		return length - t.length;
+	}
+
+	/**
+	 *   Reads the terms in order from the start of a block. The term bytes are
+	 *   overwritten by the next term.
+	 */
+	public class TermIterator {
+		private final MappedInput in;
+		private int termID;
+		private byte[] term = new byte[64];
+		private int termLength = 0;
+		private int numDocs;
+		private long postingsPosition;
+
+		private TermIterator(int block) {
+			in = new MappedInput(file, block < blockStarts.length ? blockStarts[block] : 0);
+			termID = block * BLOCK_SIZE - 1;
+		}
+
+		public boolean next() {
+			if (termID + 1 >= numTerms) return false;
+			if (++termID % BLOCK_SIZE == 0) postingsPosition = 0;
+
+			int prefix = in.readVByte();
+			int suffix = in.readVByte();
+			termLength = prefix + suffix;
+			if (term.length < termLength) {
+				byte[] t = new byte[Math.max(termLength, 2 * term.length)];
+				System.arraycopy(term, 0, t, 0, prefix);
+				term = t;
+			}
+
+			for (int i = prefix; i < termLength; i++) term[i] = in.readByte();
+			numDocs = in.readVByte();
+			postingsPosition += in.readVLong();
+			return true;
+		}
+
+		public int termID() {
+			return termID;
+		}
+
+		public byte[] term() {
+			return term;
+		}
+
+		public int termLength() {
+			return termLength;
+		}
+
+		public String termString() {
+			return new String(term, 0, termLength, UTF8);
+		}
+
+		public int docFrequency() {
+			return numDocs;
+		}
+
+		// of the postings list in the index file
+		public long postingsPosition() {
+			return postingsPosition;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ *   Writes the term dictionary of a segment. The terms have to be added in
+ *   sorted order, which is the order they are merged in.
+ *
+ *   NOTE: file structure is the terms in blocks of BLOCK_SIZE, the last one fewer
+ *   <prefix length> <suffix length> <suffix> <#docs> <postings position gap> ... for every term
+ *   followed by the block index and the trailer
+ *   <block start gap> ... for every block
+ *   <#terms> <block index start>
+ *   The prefix is the number of bytes the term shares with the term before it,
+ *   except for the first term of a block which is written whole, and the postings
+ *   positions are gaps from the term before it, the first of a block counted from 0,
+ *   so that every block can be read on its own. The block index and the entries are
+ *   variable byte encoded and the trailer is an int and a long.
+ */
+public class TermDictionaryWriter {
+	public static final int BLOCK_SIZE = 16;
+
+	private final DataOutputStream out;
+	private ByteBuffer buf = ByteBuffer.allocate(1 << 10);
+	private ByteBuffer blockIndex = ByteBuffer.allocate(1 << 12);
+	private byte[] lastTerm = new byte[64];
+	private int lastTermLength = 0;
+	private long lastPostingsPosition = 0;
+	private long lastBlockStart = 0;
+	private long position = 0;
+	private int numTerms = 0;
+
+	public TermDictionaryWriter(OutputStream out) {
+		this.out = new DataOutputStream(out);
+	}
+
+	public void add(byte[] term, int length, int numDocs, long postingsPosition) throws IOException {
+		int prefix = 0;
+		if (numTerms % BLOCK_SIZE == 0) {
+			if (blockIndex.remaining() < VByte.MAX_LONG_BYTES) {
+				ByteBuffer b = ByteBuffer.allocate(2 * blockIndex.capacity());
+				blockIndex.flip();
+				blockIndex = b.put(blockIndex);
+			}
+
+			VByte.writeLong(blockIndex, position - lastBlockStart);
+			lastBlockStart = position;
+			lastPostingsPosition = 0;
+
+		} else {
+			int n = Math.min(length, lastTermLength);
+			while (prefix < n && term[prefix] == lastTerm[prefix]) prefix++;
+		}
+
+		int size = 3 * VByte.MAX_BYTES + VByte.MAX_LONG_BYTES + length;
+		if (buf.capacity() < size) buf = ByteBuffer.allocate(Math.max(size, 2 * buf.capacity()));
+		buf.clear();
+		VByte.write(buf, prefix);
+		VByte.write(buf, length - prefix);
+		buf.put(term, prefix, length - prefix);
+		VByte.write(buf, numDocs);
+		VByte.writeLong(buf, postingsPosition - lastPostingsPosition);
+		out.write(buf.array(), 0, buf.position());
+		position += buf.position();
+
+		if (lastTerm.length < length) lastTerm = new byte[Math.max(length, 2 * lastTerm.length)];
+		System.arraycopy(term, 0, lastTerm, 0, length);
+		lastTermLength = length;
+		lastPostingsPosition = postingsPosition;
+		numTerms++;
+	}
+
+	public void close() throws IOException {
+		out.write(blockIndex.array(), 0, blockIndex.position());
+		out.writeInt(numTerms);
+		out.writeLong(position);
+		out.close();
+	}
+}
@@ -0,0 +1,101 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *   Numbers terms densely from 0 in the order they are added. The table is open
+ *   addressing with linear probing over int slots, and the characters of the terms
+ *   are kept in one array, so a term costs a few array slots instead of a String,
+ *   a map entry and a boxed Integer. The hash codes of the terms are kept so that
+ *   most probes that miss do not compare characters, and so that growing the table
+ *   does not hash the terms again.
+ */
+public class TermHash {
+	private int[] table = new int[1 << 10]; // termID + 1 of every slot, 0 for an empty slot
+	private int[] hashes = new int[1 << 8]; // by termID
+	private int[] starts = new int[(1 << 8) + 1]; // of the terms in chars by termID, the end of the last term at size
+	private char[] chars = new char[1 << 12];
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	// the termID of the term, or -1 if it has not been added
+	public int find(String term) {
+		int h = term.hashCode();
+		int mask = table.length - 1;
+		for (int slot = slot(h, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+			int termID = table[slot] - 1;
+			if (hashes[termID] == h && equals(termID, term)) return termID;
+		}
+
+		return -1;
+	}
+
+	// the termID of the term, which is given the next termID if it has not been added
+	public int add(String term) {
+		int h = term.hashCode();
+		int mask = table.length - 1;
+		int slot = slot(h, mask);
+		for (; table[slot] != 0; slot = (slot + 1) & mask) {
+			int termID = table[slot] - 1;
+			if (hashes[termID] == h && equals(termID, term)) return termID;
+		}
+
+		int termID = size++;
+		if (termID == hashes.length) {
+			hashes = Arrays.copyOf(hashes, 2 * termID);
+			starts = Arrays.copyOf(starts, 2 * termID + 1);
+		}
+
+		int start = starts[termID];
+		if (chars.length - start < term.length()) chars = Arrays.copyOf(chars, Math.max(start + term.length(), 2 * chars.length));
+		term.getChars(0, term.length(), chars, start);
+		starts[termID + 1] = start + term.length();
+		hashes[termID] = h;
+		table[slot] = termID + 1;
+
+		// NOTE: the table is kept at most half full, linear probing gets slow when it fills up
+		if (2 * size > table.length) grow();
+		return termID;
+	}
+
+	// bytes in the arrays of the table and the terms
+	public long sizeInBytes() {
+		return 4L * (table.length + hashes.length + starts.length) + 2L * chars.length;
+	}
+
+	public String getTerm(int termID) {
+		if (termID < 0 || termID >= size) throw new IndexOutOfBoundsException("No term " + termID);
+		return new String(chars, starts[termID], starts[termID + 1] - starts[termID]);
+	}
+
+	private boolean equals(int termID, String term) {
+		int start = starts[termID];
+		if (starts[termID + 1] - start != term.length()) return false;
+
+		for (int i = 0; i < term.length(); i++)
+			if (chars[start + i] != term.charAt(i)) return false;
+
+		return true;
+	}
+
+	private void grow() {
+		int[] newTable = new int[2 * table.length];
+		int mask = newTable.length - 1;
+		for (int termID = 0; termID < size; termID++) {
+			int slot = slot(hashes[termID], mask);
+			while (newTable[slot] != 0) slot = (slot + 1) & mask;
+			newTable[slot] = termID + 1;
+		}
+
+		table = newTable;
+	}
+
+	// spreads the bits of the hash code, the low bits of String.hashCode alone cluster
+	private static int slot(int h, int mask) {
+		h *= 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,42 @@
+package ir;
+
+import java.io.*;
+
+/**
+ *   Gives every term an int id the first time it is seen. The ids are
+ *   shared by all segments and saved with one term per line in id order,
+ *   new terms are appended when a segment is added.
+ */
+public class TermIDs {
+	private final TermHash terms = new TermHash();
+	private int numSaved = 0;
+
+	public synchronized int getID(String term) {
+		return terms.add(term);
+	}
+
+	public synchronized String getTerm(int id) {
+		return terms.getTerm(id);
+	}
+
+	public synchronized int size() {
+		return terms.size();
+	}
+
+	public synchronized void read(String fileName) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		String line = null;
+		while ((line = br.readLine()) != null) getID(line);
+		br.close();
+		numSaved = terms.size();
+	}
+
+	// appends the terms that have been given ids since the last save, 
+	// the first save of a new index replaces the file
+	public synchronized void save(String fileName) throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(fileName, numSaved > 0));
+		for (int id = numSaved; id < terms.size(); id++) bw.write(terms.getTerm(id) + "\n");
+		bw.close();
+		numSaved = terms.size();
+	}
+}
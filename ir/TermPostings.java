@@ -0,0 +1,71 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *   The postings of one term decoded from an index file written by IndexWriter.
+ *   The arrays are reused when the next term is read, so reading a term only
+ *   creates objects when a list is longer than any read before.
+ */
+public class TermPostings {
+	public int numDocs;
+	public int[] docIDs = new int[256];
+	public int[] numOffsets = new int[256];
+	public int[] offsetStarts = new int[257]; // where the offsets of every document start
+	public int[] offsets = new int[1024];
+	public long indexLength; // bytes of the term in the index file
+	public long positionsLength; // bytes of the term in the positions file
+
+	// reads all blocks of the term whose postings position in the dictionary is given
+	public void read(MappedFile file, long position, MappedFile positionsFile, IntCodec codec) {
+		MappedInput header = new MappedInput(file, position);
+		numDocs = header.readVByte();
+		long positionsStart = header.readVLong();
+		long blocksLength = header.readVLong();
+		MappedInput positionsIn = new MappedInput(positionsFile, positionsStart);
+		if (docIDs.length < numDocs) {
+			docIDs = new int[numDocs];
+			numOffsets = new int[numDocs];
+			offsetStarts = new int[numDocs + 1];
+		}
+
+		// the blocks are read one after another, so the skip table is not needed
+		int numBlocks = (numDocs + IndexWriter.BLOCK_SIZE - 1) / IndexWriter.BLOCK_SIZE;
+		indexLength = blocksLength + header.position() - position;
+		if (numBlocks > 1) indexLength += numBlocks * IndexWriter.SKIP_ENTRY_SIZE;
+
+		MappedInput in = new MappedInput(file, position - blocksLength);
+		int total = 0;
+		for (int start = 0; start < numDocs; start += IndexWriter.BLOCK_SIZE) {
+			int n = Math.min(IndexWriter.BLOCK_SIZE, numDocs - start);
+			codec.decode(in, docIDs, start, n);
+			codec.decode(in, numOffsets, start, n);
+
+			int blockOffsets = 0;
+			for (int i = start; i < start + n; i++) {
+				if (i > 0) docIDs[i] += docIDs[i - 1];
+				offsetStarts[i] = total + blockOffsets;
+				blockOffsets += numOffsets[i];
+			}
+
+			if (offsets.length < total + blockOffsets) offsets = Arrays.copyOf(offsets, Math.max(total + blockOffsets, 2 * offsets.length));
+			codec.decode(positionsIn, offsets, total, blockOffsets);
+			total += blockOffsets;
+		}
+
+		offsetStarts[numDocs] = total;
+		positionsLength = positionsIn.position() - positionsStart;
+
+		// the offset gaps start from 0 in every document
+		for (int i = 0; i < numDocs; i++) 
+			for (int j = offsetStarts[i] + 1; j < offsetStarts[i + 1]; j++) offsets[j] += offsets[j - 1];
+	}
+
+	// shrinks the arrays to the postings of the term, for postings that are kept
+	public void trim() {
+		docIDs = Arrays.copyOf(docIDs, numDocs);
+		numOffsets = Arrays.copyOf(numOffsets, numDocs);
+		offsetStarts = Arrays.copyOf(offsetStarts, numDocs + 1);
+		offsets = Arrays.copyOf(offsets, offsetStarts[numDocs]);
+	}
+}
@@ -0,0 +1,64 @@
+package ir;
+
+/**
+ *   A cursor over postings that are already decoded, such as those kept by the
+ *   postings cache. Advance does a galloping search from the current document.
+ */
+public class TermPostingsCursor implements PostingsCursor {
+	private final TermPostings tp;
+	private int i = -1;
+	private int docID = -1;
+	private int position; // of the next position in the offsets
+
+	public TermPostingsCursor(TermPostings tp) {
+		this.tp = tp;
+	}
+
+	public int nextDoc() {
+		if (++i >= tp.numDocs) return docID = NO_MORE_DOCS;
+		position = tp.offsetStarts[i];
+		return docID = tp.docIDs[i];
+	}
+
+	public int advance(int target) {
+		if (docID >= target) return docID;
+
+		// doubles the step until it passes the target, then searches the last step
+		int lo = i + 1;
+		int step = 1;
+		int hi = lo;
+		while (hi < tp.numDocs && tp.docIDs[hi] < target) {
+			lo = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+
+		hi = Math.min(hi, tp.numDocs);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (tp.docIDs[mid] < target) lo = mid + 1;
+			else hi = mid;
+		}
+
+		i = lo;
+		if (i >= tp.numDocs) return docID = NO_MORE_DOCS;
+		position = tp.offsetStarts[i];
+		return docID = tp.docIDs[i];
+	}
+
+	public int docID() {
+		return docID;
+	}
+
+	public int freq() {
+		return tp.offsetStarts[i + 1] - tp.offsetStarts[i];
+	}
+
+	public int nextPosition() {
+		return tp.offsets[position++];
+	}
+
+	public int docFrequency() {
+		return tp.numDocs;
+	}
+}
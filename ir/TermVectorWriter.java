@@ -0,0 +1,54 @@
+package ir;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ *   Writes the term vectors of the documents of one segment. The vectors are
+ *   appended in the order they are added, which does not have to be docID order,
+ *   and the vector index gives the position and length of the vector of every
+ *   docID of the segment.
+ */
+public class TermVectorWriter {
+	private final String vectorIndexFileName;
+	private final int firstDocID;
+	private final OutputStream out;
+	private long position = 0;
+	private long[] positions = new long[1024];
+	private int[] lengths = new int[1024];
+
+	public TermVectorWriter(String vectorsFileName, String vectorIndexFileName, int firstDocID) throws IOException {
+		this.vectorIndexFileName = vectorIndexFileName;
+		this.firstDocID = firstDocID;
+		out = new BufferedOutputStream(new FileOutputStream(vectorsFileName), 1 << 16);
+	}
+
+	public synchronized void add(int docID, byte[] vector) throws IOException {
+		int i = docID - firstDocID;
+		if (i >= lengths.length) {
+			int size = Math.max(i + 1, 2 * lengths.length);
+			positions = Arrays.copyOf(positions, size);
+			lengths = Arrays.copyOf(lengths, size);
+		}
+
+		out.write(vector);
+		positions[i] = position;
+		lengths[i] = vector.length;
+		position += vector.length;
+	}
+
+	// NOTE: file structure of the vector index is a position (long) and a length (int)
+	// for every docID from firstDocID up to endDocID, documents without a vector have length 0
+	public synchronized void close(int endDocID) throws IOException {
+		out.close();
+
+		DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(vectorIndexFileName)));
+		for (int i = 0; i < endDocID - firstDocID; i++) {
+			boolean added = i < lengths.length;
+			indexOut.writeLong(added ? positions[i] : 0);
+			indexOut.writeInt(added ? lengths[i] : 0);
+		}
+
+		indexOut.close();
+	}
+}
@@ -0,0 +1,47 @@
+package ir;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ *   Encoding of the term vector of a document: the number of distinct terms
+ *   followed by, for every term in id order, the gap to the previous term id
+ *   and the term frequency, all as vbytes.
+ */
+public class TermVectors {
+
+	public static byte[] encode(Map<String, Integer> termFrequencies, TermIDs termIDs) {
+		int[] ids = new int[termFrequencies.size()];
+		Map<Integer, Integer> tfs = new HashMap<Integer, Integer>();
+		int i = 0;
+		for (Map.Entry<String, Integer> e : termFrequencies.entrySet()) {
+			ids[i] = termIDs.getID(e.getKey());
+			tfs.put(ids[i++], e.getValue());
+		}
+
+		Arrays.sort(ids);
+		ByteBuffer buf = ByteBuffer.allocate(VByte.MAX_BYTES * (1 + 2 * ids.length));
+		VByte.write(buf, ids.length);
+		int prev = 0;
+		for (int id : ids) {
+			VByte.write(buf, id - prev);
+			VByte.write(buf, tfs.get(id));
+			prev = id;
+		}
+
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	public static Map<String, Integer> decode(byte[] vector, TermIDs termIDs) {
+		ByteBuffer buf = ByteBuffer.wrap(vector);
+		int numTerms = VByte.read(buf);
+		Map<String, Integer> termFrequencies = new HashMap<String, Integer>(numTerms * 2);
+		int id = 0;
+		for (int i = 0; i < numTerms; i++) {
+			id += VByte.read(buf);
+			termFrequencies.put(termIDs.getTerm(id), VByte.read(buf));
+		}
+
+		return termFrequencies;
+	}
+}
@@ -0,0 +1,105 @@
+package ir;
+
+import java.util.Arrays;
+
+/**
+ *   Keeps the k best scored documents of a search in a min-heap, so a ranked search
+ *   does not keep or sort all of its hits. The documents have to be offered in docID
+ *   order, a document with the same score as one that is kept goes after it, which
+ *   gives the same order as a stable sort of all hits on score.
+ *
+ *   NOTE: the documents are only made a heap when k of them have been offered, before
+ *   that they are kept in docID order and sorted at the end. The root of the heap is
+ *   the worst document kept, the one with the lowest score and of those the highest
+ *   docID. The arrays grow up to k as needed.
+ */
+public class TopScores {
+	private final int k;
+	private int[] docIDs;
+	private double[] scores;
+	private int size = 0;
+	private int totalHits = 0;
+
+	public TopScores(int k) {
+		if (k < 1) throw new IllegalArgumentException("Need room for at least one document");
+		this.k = k;
+		docIDs = new int[Math.min(k, 16)];
+		scores = new double[docIDs.length];
+	}
+
+	// the number of documents offered, kept or not
+	public int totalHits() {
+		return totalHits;
+	}
+
+	public void offer(int docID, double score) {
+		totalHits++;
+
+		if (size < k) {
+			if (size == docIDs.length) {
+				int n = (int) Math.min(k, 2L * size);
+				docIDs = Arrays.copyOf(docIDs, n);
+				scores = Arrays.copyOf(scores, n);
+			}
+
+			docIDs[size] = docID;
+			scores[size] = score;
+			if (++size == k) 
+				for (int i = size / 2 - 1; i >= 0; i--) down(i, size);
+
+		// a later document only replaces the worst one if it has a strictly better score
+		} else if (Double.compare(score, scores[0]) > 0) {
+			docIDs[0] = docID;
+			scores[0] = score;
+			down(0, size);
+		}
+	}
+
+	// the kept documents with the best score first and ties in docID order, called once
+	// when all documents have been offered
+	public PostingsList toPostingsList() {
+		PostingsList result = new PostingsList();
+		if (size < k) {
+			for (int i = 0; i < size; i++) result.addDoc(docIDs[i], scores[i]);
+			result.sortOnScore();
+
+		} else {
+			// heap sort in place, every removed root goes to the end of the arrays
+			for (int end = size - 1; end > 0; end--) {
+				swap(0, end);
+				down(0, end);
+			}
+
+			for (int i = 0; i < size; i++) result.addDoc(docIDs[i], scores[i]);
+		}
+
+		result.setTotalHits(totalHits);
+		return result;
+	}
+
+	// true if the i:th document goes after the j:th one in the result
+	private boolean worse(int i, int j) {
+		int c = Double.compare(scores[i], scores[j]);
+		return c < 0 || (c == 0 && docIDs[i] > docIDs[j]);
+	}
+
+	private void down(int i, int end) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= end) break;
+			if (child + 1 < end && worse(child + 1, child)) child++;
+			if (!worse(child, i)) break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int docID = docIDs[i];
+		docIDs[i] = docIDs[j];
+		docIDs[j] = docID;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+}
@@ -0,0 +1,66 @@
+package ir;
+
+import java.util.*;
+
+/**
+ *   Walks the cursors of the same term in several shards together. The docIDs of
+ *   the shards are interleaved and no document is in two shards, so the cursor is
+ *   always on the smallest document of the cursors.
+ */
+public class UnionCursor implements PostingsCursor {
+	private final List<PostingsCursor> cursors;
+	private final int[] docIDs; // of the cursors, -1 before they are started
+	private int current = -1;
+	private int docID = -1;
+
+	public UnionCursor(List<PostingsCursor> cursors) {
+		this.cursors = cursors;
+		docIDs = new int[cursors.size()];
+		Arrays.fill(docIDs, -1);
+	}
+
+	public int nextDoc() {
+		if (docID == NO_MORE_DOCS) return docID;
+
+		if (current < 0) {
+			for (int i = 0; i < docIDs.length; i++) docIDs[i] = cursors.get(i).nextDoc();
+		} else docIDs[current] = cursors.get(current).nextDoc();
+
+		return docID = smallest();
+	}
+
+	public int advance(int target) {
+		if (docID >= target) return docID;
+
+		for (int i = 0; i < docIDs.length; i++)
+			if (docIDs[i] < target) docIDs[i] = cursors.get(i).advance(target);
+
+		return docID = smallest();
+	}
+
+	private int smallest() {
+		current = 0;
+		for (int i = 1; i < docIDs.length; i++)
+			if (docIDs[i] < docIDs[current]) current = i;
+
+		return docIDs[current];
+	}
+
+	public int docID() {
+		return docID;
+	}
+
+	public int freq() {
+		return cursors.get(current).freq();
+	}
+
+	public int nextPosition() {
+		return cursors.get(current).nextPosition();
+	}
+
+	public int docFrequency() {
+		int df = 0;
+		for (PostingsCursor cursor : cursors) df += cursor.docFrequency();
+		return df;
+	}
+}
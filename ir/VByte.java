@@ -0,0 +1,51 @@
+package ir;
+
+import java.nio.ByteBuffer;
+
+/**
+ *   Variable byte encoding of non-negative integers, seven bits per byte
+ *   with the high bit set on every byte but the last.
+ */
+public class VByte {
+	public static final int MAX_BYTES = 5;
+	public static final int MAX_LONG_BYTES = 10;
+
+	public static void write(ByteBuffer buf, int n) {
+		while ((n & ~0x7F) != 0) {
+			buf.put((byte) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+
+		buf.put((byte) n);
+	}
+
+	public static void writeLong(ByteBuffer buf, long n) {
+		while ((n & ~0x7FL) != 0) {
+			buf.put((byte) ((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+
+		buf.put((byte) n);
+	}
+
+	public static int read(ByteBuffer buf) {
+		int b = buf.get();
+		int n = b & 0x7F;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = buf.get();
+			n |= (b & 0x7F) << shift;
+		}
+
+		return n;
+	}
+
+	public static int size(int n) {
+		int size = 1;
+		while ((n & ~0x7F) != 0) {
+			size++;
+			n >>>= 7;
+		}
+
+		return size;
+	}
+}
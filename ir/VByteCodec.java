@@ -0,0 +1,25 @@
+package ir;
+
+import java.nio.ByteBuffer;
+
+/**
+ *   Encodes every number on its own with VByte.
+ */
+public class VByteCodec extends IntCodec {
+
+	public VByteCodec(int id, String name) {
+		super(id, name);
+	}
+
+	public int maxEncodedSize(int n) {
+		return n * VByte.MAX_BYTES;
+	}
+
+	public void encode(int[] values, int from, int n, ByteBuffer out) {
+		for (int i = from; i < from + n; i++) VByte.write(out, values[i]);
+	}
+
+	public void decode(MappedInput in, int[] values, int from, int n) {
+		for (int i = from; i < from + n; i++) values[i] = in.readVByte();
+	}
+}